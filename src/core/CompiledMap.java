@@ -0,0 +1,258 @@
+package core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import privateUtil.Util;
+import privateUtil.XmlTextReader;
+import util.FileParsingException;
+
+/**
+ * <p>
+ * Reads and writes compiled maps. See <i>MapFile.compile</i> and <i>MapFile.loadCompiled</i>.
+ * </p>
+ *
+ * <p>
+ * A compiled map is laid out as follows. All numbers are little-endian 32 bit ints.
+ * </p>
+ *
+ * <ul>
+ * <li>The header: the magic number "TMXB", the format version, the number of tile layers, and
+ * the length of the skeleton in bytes.</li>
+ * <li>The number of gids in each tile layer.</li>
+ * <li>The skeleton: the map's XML in UTF-8, with the contents of each tile layer's <i>data</i>
+ * element removed. Tileset references, objects, and properties are kept here, so they are read by
+ * the same code as a TMX file. The paths of tileset files and images are resolved against the
+ * map's directory. The chunks of an infinite map are kept in the skeleton as they are.</li>
+ * <li>Padding, up to a multiple of 4 bytes.</li>
+ * <li>The gids of each tile layer, in row-major order, one after another.</li>
+ * </ul>
+ */
+final class CompiledMap {
+	/**
+	 * "TMXB", read as a little-endian int.
+	 */
+	private static final int MAGIC = 0x42584d54;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int WRITE_CHUNK_SIZE = 1 << 14;
+
+	/**
+	 * The skeleton XML.
+	 */
+	ByteBuffer skeleton;
+	/**
+	 * The gids of each tile layer, in the order the layers appear in the skeleton.
+	 */
+	IntBuffer[] layers;
+
+	private CompiledMap() {}
+
+	/**
+	 * Compile a TMX file.
+	 *
+	 * @param tmx
+	 *            The TMX file.
+	 * @param baseDirectory
+	 *            The directory of the TMX file. Used to resolve the paths of tilesets and images.
+	 * @param out
+	 *            Where to write the compiled map.
+	 * @param tilesetFiles
+	 *            The resolved paths of the tileset files used by the map are added to this list.
+	 * @param images
+	 *            The resolved paths of the images used by the map are added to this list. Images
+	 *            used by tileset files are not included.
+	 */
+	static void write(InputStream tmx, String baseDirectory, OutputStream out, List<String> tilesetFiles, List<String> images) throws IOException {
+		ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+		ArrayList<int[]> layers = new ArrayList<>();
+		writeSkeleton(tmx, baseDirectory, skeleton, layers, tilesetFiles, images);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4 * layers.size()).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(layers.size());
+		header.putInt(skeleton.size());
+		for (int[] gids : layers) {
+			header.putInt(gids.length);
+		}
+		out.write(header.array());
+		skeleton.writeTo(out);
+		out.write(new byte[padding(skeleton.size())]);
+
+		ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK_SIZE * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int[] gids : layers) {
+			for (int i = 0; i < gids.length; i += WRITE_CHUNK_SIZE) {
+				int count = Math.min(WRITE_CHUNK_SIZE, gids.length - i);
+				chunk.clear();
+				chunk.asIntBuffer().put(gids, i, count);
+				out.write(chunk.array(), 0, count * 4);
+			}
+		}
+	}
+
+	/**
+	 * Copy the TMX file to <i>out</i>, decoding and removing the contents of each tile layer's data
+	 * element.
+	 */
+	private static void writeSkeleton(InputStream tmx, String baseDirectory, OutputStream out, ArrayList<int[]> layers, List<String> tilesetFiles, List<String> images) {
+		XMLStreamReader reader = Util.openXmlStream(tmx);
+		try {
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+
+			// Each open element is kept in a small Dom, for error messages.
+			Node current = Util.newDocument();
+			// The chunks of an infinite map are kept as they are, so they can still be decoded lazily.
+			boolean isInfinite = false;
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					Element element = Util.readElementHeader(reader, current);
+					String name = element.getTagName();
+					if (name.equals("map")) {
+						isInfinite = Util.getIntAttribute(element, "infinite", 0) == 1;
+					}
+					if (name.equals("data") && current.getNodeName().equals("layer") && !isInfinite) {
+						Element layerElement = (Element) current;
+						int width = TileLayer.readSize(layerElement, "width");
+						int height = TileLayer.readSize(layerElement, "height");
+						try (XmlTextReader data = new XmlTextReader(reader)) {
+							layers.add(TileLayer.decode(element, data, width, height));
+						} catch (IOException e) {
+							throw new FileParsingException("Error while reading tile data", e);
+						}
+						writer.writeEmptyElement("data");
+						writer.writeAttribute("encoding", "compiled");
+						writer.writeAttribute("layer", Integer.toString(layers.size() - 1));
+						Util.discardElement(element);
+						break;
+					}
+
+					writer.writeStartElement(name);
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						String attribute = reader.getAttributeLocalName(i);
+						String value = reader.getAttributeValue(i);
+						if (attribute.equals("source") && name.equals("tileset")) {
+							value = Util.resolvePath(baseDirectory, value);
+							tilesetFiles.add(value);
+						} else if (attribute.equals("source") && name.equals("image")) {
+							value = Util.resolvePath(baseDirectory, value);
+							images.add(value);
+						}
+						writer.writeAttribute(attribute, value);
+					}
+					current = element;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					writer.writeEndElement();
+					Element finished = (Element) current;
+					current = current.getParentNode();
+					Util.discardElement(finished);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					// Indentation isn't needed, but the text of text objects and properties is kept as is.
+					String parentName = current.getNodeName();
+					if (!reader.isWhiteSpace() || parentName.equals("text") || parentName.equals("property")) {
+						writer.writeCharacters(reader.getText());
+					}
+					break;
+				default:
+					// Comments and processing instructions are dropped.
+					break;
+				}
+			}
+
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw Util.xmlError(e);
+		} finally {
+			Util.closeXmlStream(reader);
+		}
+	}
+
+	/**
+	 * Memory-map a compiled map. The gids are not copied; each layer's IntBuffer is a view of the
+	 * mapped file.
+	 *
+	 * @param file
+	 *            The compiled map.
+	 * @return The compiled map's skeleton and gids.
+	 * @throws FileParsingException
+	 *             If the file can't be read, or isn't a compiled map.
+	 */
+	static CompiledMap open(Path file) {
+		MappedByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new FileParsingException("Compiled map is too large: '" + file + "'");
+			}
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			throw new FileParsingException("Error while reading compiled map: '" + file + "'", e);
+		}
+		ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new FileParsingException("Not a compiled map: '" + file + "'");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new FileParsingException("Unsupported compiled map version: " + buffer.getInt(4));
+		}
+		int layerCount = buffer.getInt(8);
+		int skeletonLength = buffer.getInt(12);
+		long position = HEADER_SIZE + 4L * layerCount;
+		if (layerCount < 0 || skeletonLength < 0 || position + skeletonLength > buffer.limit()) {
+			throw new FileParsingException("Compiled map is truncated: '" + file + "'");
+		}
+
+		CompiledMap compiled = new CompiledMap();
+		compiled.skeleton = slice(buffer, (int) position, skeletonLength);
+		position += skeletonLength + padding(skeletonLength);
+
+		compiled.layers = new IntBuffer[layerCount];
+		for (int i = 0; i < layerCount; i++) {
+			int gidCount = buffer.getInt(HEADER_SIZE + 4 * i);
+			if (gidCount < 0 || position + 4L * gidCount > buffer.limit()) {
+				throw new FileParsingException("Compiled map is truncated: '" + file + "'");
+			}
+			compiled.layers[i] = slice(buffer, (int) position, gidCount * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			position += 4L * gidCount;
+		}
+		return compiled;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(position);
+		view.limit(position + length);
+		return view.slice();
+	}
+
+	/**
+	 * @return The number of bytes needed after the skeleton so the gids start at a multiple of 4.
+	 */
+	private static int padding(int skeletonLength) {
+		return (4 - skeletonLength % 4) % 4;
+	}
+}
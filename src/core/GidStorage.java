@@ -0,0 +1,1775 @@
+package core;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import privateUtil.Util;
+import util.FileParsingException;
+import util.Rect;
+
+/**
+ * <p>
+ * Holds the gids of a TileLayer, in row-major order, including the tile flipping flags.
+ * </p>
+ *
+ * <p>
+ * Storage may be read-only or have a limited range of gids, so <i>set</i> returns the storage to
+ * use from then on. It's either the same object, or a new storage holding a copy of the gids.
+ * </p>
+ *
+ * <p>
+ * Memory sizes are estimates for a 64 bit JVM with compressed references.
+ * </p>
+ */
+abstract class GidStorage {
+	/**
+	 * The width and height of the blocks that sparse block storage is split into.
+	 */
+	static final int BLOCK_SIZE = 16;
+	/**
+	 * Sparse storage is only used if it takes at most this fraction of the memory of the best
+	 * dense storage, since reading it is slower.
+	 */
+	private static final double SPARSE_RATIO = 0.5;
+	/**
+	 * The most gids BytePalette storage can hold.
+	 */
+	static final int BYTE_PALETTE_SIZE = 1 << 8;
+	/**
+	 * The most gids ShortPalette storage can hold.
+	 */
+	static final int SHORT_PALETTE_SIZE = 1 << 16;
+	/**
+	 * The base 2 log of the width and height of the chunks of Packed storage.
+	 */
+	static final int PACKED_CHUNK_SHIFT = 5;
+	static final int PACKED_CHUNK_SIZE = 1 << PACKED_CHUNK_SHIFT;
+	static final int PACKED_CHUNK_CELLS = PACKED_CHUNK_SIZE * PACKED_CHUNK_SIZE;
+	private static final int OBJECT_HEADER = 16;
+	private static final int ARRAY_HEADER = 16;
+	private static final int REFERENCE = 4;
+
+	/**
+	 * @param index
+	 *            The index of the cell, <i>y * width + x</i>.
+	 * @return The gid of the cell.
+	 */
+	abstract int get(int index);
+
+	/**
+	 * Copy a run of gids into an array.
+	 *
+	 * @param index
+	 *            The index of the first cell to copy.
+	 * @param dest
+	 *            The array to copy into.
+	 * @param destIndex
+	 *            The index in <i>dest</i> to copy the first gid to.
+	 * @param length
+	 *            The number of gids to copy.
+	 */
+	abstract void get(int index, int[] dest, int destIndex, int length);
+
+	/**
+	 * @param index
+	 *            The index of the cell, <i>y * width + x</i>.
+	 * @param gid
+	 *            The new gid of the cell.
+	 * @return The storage to use from now on. Either this object, or a new one with the change.
+	 */
+	abstract GidStorage set(int index, int gid);
+
+	/**
+	 * @return Storage holding the same gids, which can be changed without changing this one.
+	 */
+	abstract GidStorage copy();
+
+	/**
+	 * @return The approximate number of bytes of heap this storage takes.
+	 */
+	abstract long estimatedBytes();
+
+	/**
+	 * @return A short name for the kind of storage, for memory reports.
+	 */
+	abstract String getKind();
+
+	/**
+	 * @return The number of bytes outside the heap that this storage uses, in direct memory or in a
+	 *         memory-mapped file.
+	 */
+	long offHeapBytes() {
+		return 0;
+	}
+
+	/**
+	 * Free any memory outside the heap now, instead of when the storage is garbage collected. The
+	 * storage must not be used afterwards.
+	 */
+	void close() {}
+
+	/**
+	 * Check that every gid belongs to one of the map's tilesets.
+	 *
+	 * @param count
+	 *            The number of cells.
+	 */
+	void validate(MapFile<?> map, int count) {
+		for (int i = 0; i < count; i++) {
+			// Throws if the gid doesn't belong to any tileset.
+			map.getTile(get(i) & TileLayer.GID_MASK);
+		}
+	}
+
+	/**
+	 * Choose the storage that takes the least memory for a layer's gids. The dense storage is an
+	 * array, or a palette if the layer uses few enough gids. Sparse storage is only chosen if it
+	 * takes at most half the memory of that. Packed storage is chosen if it's allowed and takes
+	 * less memory than either.
+	 *
+	 * @param gids
+	 *            The gids of the layer, in row-major order.
+	 * @param pack
+	 *            If true, Packed storage may be chosen.
+	 * @return Storage using <i>gids</i> as is, or storage holding a copy of them.
+	 */
+	static GidStorage compact(int[] gids, int width, int height, boolean pack) {
+		Array array = new Array(gids);
+		Estimate estimate = new Estimate(array, width, height, pack);
+		long paletteBytes = estimate.getPaletteBytes();
+		long denseBytes = Math.min(estimate.getArrayBytes(), paletteBytes);
+		long blockBytes = estimate.getBlockBytes();
+		long cellBytes = estimate.getCellBytes();
+		long packedBytes = pack ? estimate.packedBytes : Long.MAX_VALUE;
+		if (Math.min(blockBytes, cellBytes) <= Math.min(denseBytes * SPARSE_RATIO, packedBytes)) {
+			if (blockBytes <= cellBytes) {
+				return Chunked.blocks(gids, width, height);
+			}
+			return Cells.of(gids, estimate.usedCells);
+		}
+		if (packedBytes < denseBytes) {
+			return Packed.of(gids, width, height);
+		}
+		if (paletteBytes < estimate.getArrayBytes()) {
+			return Palette.toStorage(gids, estimate.palette);
+		}
+		return array;
+	}
+
+	/**
+	 * Counts the cells and blocks of a layer that aren't empty, to estimate how much memory each
+	 * kind of storage would take for it.
+	 */
+	static final class Estimate {
+		/**
+		 * The number of cells in the layer.
+		 */
+		final long cells;
+		/**
+		 * The number of cells that aren't empty.
+		 */
+		final long usedCells;
+		/**
+		 * The number of <i>BLOCK_SIZE</i> blocks covering the layer.
+		 */
+		final long blocks;
+		/**
+		 * The number of blocks with at least one cell that isn't empty.
+		 */
+		final long usedBlocks;
+		/**
+		 * The different gids in the layer, in the order they first appear. Once it holds more than
+		 * <i>SHORT_PALETTE_SIZE</i> gids, no more are added.
+		 */
+		final Palette palette;
+		/**
+		 * The bytes Packed storage would take, or -1 if it wasn't measured.
+		 */
+		final long packedBytes;
+
+		/**
+		 * Read every cell of the storage. This decodes every chunk of Chunked storage.
+		 *
+		 * @param measurePacked
+		 *            If true, the gids in each chunk are counted to measure <i>packedBytes</i>.
+		 */
+		Estimate(GidStorage gids, int width, int height, boolean measurePacked) {
+			int blockColumns = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			boolean[] isUsed = new boolean[blockColumns];
+			int[] row = new int[width];
+			long used = 0;
+			long usedBlockCount = 0;
+			palette = new Palette(true);
+			int packedColumns = (width + PACKED_CHUNK_SIZE - 1) >> PACKED_CHUNK_SHIFT;
+			PackedCounter counter = measurePacked ? new PackedCounter(packedColumns) : null;
+			long packed = 0;
+			// Neighboring cells often have the same gid, so it's only looked up when it changes.
+			long lastGid = Long.MIN_VALUE;
+			for (int y = 0; y < height; y++) {
+				if (y % BLOCK_SIZE == 0) {
+					usedBlockCount += countAndClear(isUsed);
+				}
+				if (counter != null && y % PACKED_CHUNK_SIZE == 0) {
+					packed += counter.finishRow();
+				}
+				gids.get(y * width, row, 0, width);
+				long lastCounted = Long.MIN_VALUE;
+				int lastColumn = -1;
+				for (int x = 0; x < width; x++) {
+					int gid = row[x];
+					if (gid != 0) {
+						used++;
+						isUsed[x / BLOCK_SIZE] = true;
+					}
+					if (gid != lastGid && palette.size <= SHORT_PALETTE_SIZE) {
+						if (palette.indexOf(gid) < 0) {
+							palette.add(gid);
+						}
+						lastGid = gid;
+					}
+					if (counter != null && (gid != lastCounted || x >> PACKED_CHUNK_SHIFT != lastColumn)) {
+						lastColumn = x >> PACKED_CHUNK_SHIFT;
+						counter.add(lastColumn, gid);
+						lastCounted = gid;
+					}
+				}
+			}
+			cells = (long) width * height;
+			usedCells = used;
+			blocks = (long) blockColumns * ((height + BLOCK_SIZE - 1) / BLOCK_SIZE);
+			usedBlocks = usedBlockCount + countAndClear(isUsed);
+			if (counter != null) {
+				long chunkCount = (long) packedColumns * ((height + PACKED_CHUNK_SIZE - 1) >> PACKED_CHUNK_SHIFT);
+				packedBytes = Packed.estimate(chunkCount) + packed + counter.finishRow();
+			} else {
+				packedBytes = -1;
+			}
+		}
+
+		private static int countAndClear(boolean[] isUsed) {
+			int count = 0;
+			for (int i = 0; i < isUsed.length; i++) {
+				if (isUsed[i]) {
+					count++;
+					isUsed[i] = false;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * @return The bytes an int array would take.
+		 */
+		long getArrayBytes() {
+			return ARRAY_HEADER + 4 * cells;
+		}
+
+		/**
+		 * @return The bytes BytePalette or ShortPalette storage would take, or
+		 *         <i>getArrayBytes</i> if the layer uses too many gids for either.
+		 */
+		long getPaletteBytes() {
+			if (palette.size <= BYTE_PALETTE_SIZE) {
+				return BytePalette.estimate(cells, palette.size);
+			} else if (palette.size <= SHORT_PALETTE_SIZE) {
+				return ShortPalette.estimate(cells, palette.size);
+			}
+			return getArrayBytes();
+		}
+
+		/**
+		 * @return The bytes sparse block storage would take.
+		 */
+		long getBlockBytes() {
+			return Chunked.estimate(blocks, usedBlocks, BLOCK_SIZE * BLOCK_SIZE);
+		}
+
+		/**
+		 * @return The bytes a hash table of the cells that aren't empty would take.
+		 */
+		long getCellBytes() {
+			return Cells.estimate(Cells.capacityFor(usedCells));
+		}
+	}
+
+	/**
+	 * Counts the different gids in each chunk of a row of Packed chunks, for Estimate.
+	 */
+	private static final class PackedCounter {
+		/**
+		 * A hash table of gids for each chunk in the row. A slot is only in use if its stamp is
+		 * <i>stamp</i>, so the tables don't have to be cleared for the next row.
+		 */
+		private final int[][] keys;
+		private final int[][] stamps;
+		private final int[] counts;
+		private final boolean[] hasTiles;
+		private int stamp = 1;
+
+		PackedCounter(int columns) {
+			keys = new int[columns][2 * PACKED_CHUNK_CELLS];
+			stamps = new int[columns][2 * PACKED_CHUNK_CELLS];
+			counts = new int[columns];
+			hasTiles = new boolean[columns];
+		}
+
+		void add(int column, int gid) {
+			if (gid != 0) {
+				hasTiles[column] = true;
+			}
+			int[] columnKeys = keys[column];
+			int[] columnStamps = stamps[column];
+			int mask = columnKeys.length - 1;
+			for (int slot = Palette.hash(gid) & mask;; slot = (slot + 1) & mask) {
+				if (columnStamps[slot] != stamp) {
+					columnStamps[slot] = stamp;
+					columnKeys[slot] = gid;
+					counts[column]++;
+					return;
+				} else if (columnKeys[slot] == gid) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * @return The bytes the row's chunks would take. The counts are cleared for the next row.
+		 */
+		long finishRow() {
+			long bytes = 0;
+			for (int i = 0; i < counts.length; i++) {
+				if (hasTiles[i]) {
+					bytes += PackedChunk.estimate(counts[i]);
+				}
+				counts[i] = 0;
+				hasTiles[i] = false;
+			}
+			stamp++;
+			return bytes;
+		}
+	}
+
+	/**
+	 * Gids stored in an int array.
+	 */
+	static final class Array extends GidStorage {
+		private final int[] gids;
+
+		Array(int[] gids) {
+			this.gids = gids;
+		}
+
+		@Override
+		int get(int index) {
+			return gids[index];
+		}
+
+		@Override
+		void get(int index, int[] dest, int destIndex, int length) {
+			System.arraycopy(gids, index, dest, destIndex, length);
+		}
+
+		@Override
+		GidStorage set(int index, int gid) {
+			gids[index] = gid;
+			return this;
+		}
+
+		@Override
+		GidStorage copy() {
+			return new Array(gids.clone());
+		}
+
+		@Override
+		long estimatedBytes() {
+			return ARRAY_HEADER + 4L * gids.length;
+		}
+
+		@Override
+		String getKind() {
+			return "array";
+		}
+
+		int[] getArray() {
+			return gids;
+		}
+	}
+
+	/**
+	 * Read-only gids in an IntBuffer, such as a view of a memory-mapped file. The first change
+	 * copies the gids into an array, or into Direct storage.
+	 */
+	static final class Buffer extends GidStorage {
+		private final IntBuffer gids;
+		private final boolean copyOffHeap;
+
+		Buffer(IntBuffer gids) {
+			this(gids, false);
+		}
+
+		/**
+		 * @param copyOffHeap
+		 *            If true, the first change copies the gids into Direct storage instead of an
+		 *            array.
+		 */
+		Buffer(IntBuffer gids, boolean copyOffHeap) {
+			this.gids = gids;
+			this.copyOffHeap = copyOffHeap;
+		}
+
+		@Override
+		int get(int index) {
+			return gids.get(index);
+		}
+
+		@Override
+		void get(int index, int[] dest, int destIndex, int length) {
+			IntBuffer view = gids.duplicate();
+			view.position(index);
+			view.get(dest, destIndex, length);
+		}
+
+		@Override
+		GidStorage set(int index, int gid) {
+			if (copyOffHeap) {
+				return Direct.of(this, gids.limit()).set(index, gid);
+			}
+			int[] array = new int[gids.limit()];
+			get(0, array, 0, array.length);
+			array[index] = gid;
+			return new Array(array);
+		}
+
+		@Override
+		GidStorage copy() {
+			// The buffer is never changed, so it can be shared.
+			return this;
+		}
+
+		@Override
+		long estimatedBytes() {
+			// The gids themselves aren't on the heap.
+			return OBJECT_HEADER + 32;
+		}
+
+		@Override
+		String getKind() {
+			return gids.isDirect() ? "mapped" : "buffer";
+		}
+
+		@Override
+		long offHeapBytes() {
+			return gids.isDirect() ? 4L * gids.limit() : 0;
+		}
+
+		/**
+		 * @return Storage sharing this buffer, whose first change copies the gids into Direct storage.
+		 */
+		Buffer copyingOffHeap() {
+			return new Buffer(gids, true);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Gids stored in direct memory, outside the heap, so the garbage collector never has to scan or
+	 * move them. See <i>LoadOptions.offHeapTileLayers</i>.
+	 * </p>
+	 *
+	 * <p>
+	 * The memory is freed by <i>close</i>, or by the garbage collector once the storage is
+	 * unreachable. At most 2^29 - 1 gids fit, since a direct buffer holds at most 2^31 - 1 bytes.
+	 * </p>
+	 */
+	static final class Direct extends GidStorage {
+		/**
+		 * The number of gids copied at a time by <i>of</i>.
+		 */
+		private static final int COPY_SIZE = 1 << 12;
+
+		private ByteBuffer memory;
+		/**
+		 * A view of <i>memory</i>, in the platform's byte order, so reads and writes are single
+		 * loads and stores.
+		 */
+		private IntBuffer gids;
+
+		/**
+		 * Allocate storage of empty cells.
+		 *
+		 * @throws IllegalArgumentException
+		 *             If more gids are needed than fit in a direct buffer.
+		 */
+		Direct(int count) {
+			if (count > Integer.MAX_VALUE / 4) {
+				throw new IllegalArgumentException(count + " gids don't fit in off-heap storage; the most that fit is " + Integer.MAX_VALUE / 4);
+			}
+			memory = ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder());
+			gids = memory.asIntBuffer();
+		}
+
+		/**
+		 * @return Direct storage holding a copy of the first <i>count</i> gids of <i>source</i>.
+		 */
+		static Direct of(GidStorage source, int count) {
+			Direct direct = new Direct(count);
+			IntBuffer view = direct.gids.duplicate();
+			int[] run = new int[Math.min(COPY_SIZE, count)];
+			for (int i = 0; i < count; i += run.length) {
+				int length = Math.min(run.length, count - i);
+				source.get(i, run, 0, length);
+				view.put(run, 0, length);
+			}
+			return direct;
+		}
+
+		@Override
+		int get(int index) {
+			return gids.get(index);
+		}
+
+		@Override
+		void get(int index, int[] dest, int destIndex, int length) {
+			IntBuffer view = gids.duplicate();
+			view.position(index);
+			view.get(dest, destIndex, length);
+		}
+
+		@Override
+		GidStorage set(int index, int gid) {
+			gids.put(index, gid);
+			return this;
+		}
+
+		@Override
+		GidStorage copy() {
+			return of(this, gids.capacity());
+		}
+
+		@Override
+		long estimatedBytes() {
+			// The two buffer objects. The gids themselves aren't on the heap.
+			return OBJECT_HEADER + 2 * REFERENCE + 2 * (OBJECT_HEADER + 48);
+		}
+
+		@Override
+		String getKind() {
+			return "direct";
+		}
+
+		@Override
+		long offHeapBytes() {
+			return gids == null ? 0 : 4L * gids.capacity();
+		}
+
+		@Override
+		void close() {
+			if (memory != null) {
+				ByteBuffer freed = memory;
+				memory = null;
+				gids = null;
+				Util.freeDirectBuffer(freed);
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * The different gids used by BytePalette or ShortPalette storage, including their flipping
+	 * flags. Gids are added as they're needed, and never removed.
+	 * </p>
+	 */
+	static final class Palette {
+		/**
+		 * The number of slots in <i>recentGids</i> and <i>recentIndexes</i>.
+		 */
+		private static final int RECENT_SIZE = 1 << 12;
+
+		/**
+		 * The gids, in the order they were added. Only the first <i>size</i> are used.
+		 */
+		int[] gids = new int[16];
+		int size;
+		/**
+		 * A hash table of the index of each gid plus 1, or 0 for an empty slot. The length is a
+		 * power of 2, and the table is kept at most half full.
+		 */
+		private int[] table = new int[32];
+		/**
+		 * A direct-mapped cache of recently found gids and their indexes plus 1, indexed by the low
+		 * bits of the gid and its flipping flags. It's faster than the hash table while every cell
+		 * of a layer is looked up. Null once the palette is used by storage.
+		 */
+		private int[] recentGids;
+		private int[] recentIndexes;
+
+		/**
+		 * An empty palette.
+		 *
+		 * @param isLayer
+		 *            If true, <i>recentGids</i> is used, since every cell of a layer is about to be
+		 *            looked up.
+		 */
+		Palette(boolean isLayer) {
+			if (isLayer) {
+				recentGids = new int[RECENT_SIZE];
+				recentIndexes = new int[RECENT_SIZE];
+			}
+		}
+
+		/**
+		 * Make storage holding a layer's gids as indexes into a palette.
+		 *
+		 * @param palette
+		 *            Holds every gid in <i>gids</i>, and at most <i>SHORT_PALETTE_SIZE</i> of
+		 *            them.
+		 */
+		static GidStorage toStorage(int[] gids, Palette palette) {
+			// Like in Estimate, a gid is only looked up when it differs from the previous cell's.
+			int lastGid = 0;
+			int lastIndex = palette.indexOf(0);
+			if (palette.size <= BYTE_PALETTE_SIZE) {
+				byte[] indexes = new byte[gids.length];
+				for (int i = 0; i < gids.length; i++) {
+					if (gids[i] != lastGid) {
+						lastGid = gids[i];
+						lastIndex = palette.indexOf(lastGid);
+					}
+					indexes[i] = (byte) lastIndex;
+				}
+				palette.dropCache();
+				return new BytePalette(indexes, palette);
+			}
+			short[] indexes = new short[gids.length];
+			for (int i = 0; i < gids.length; i++) {
+				if (gids[i] != lastGid) {
+					lastGid = gids[i];
+					lastIndex = palette.indexOf(lastGid);
+				}
+				indexes[i] = (short) lastIndex;
+			}
+			palette.dropCache();
+			return new ShortPalette(indexes, palette);
+		}
+
+		/**
+		 * @return The bytes a palette of <i>size</i> gids takes.
+		 */
+		static long estimate(int size) {
+			int capacity = 16;
+			while (capacity < size) {
+				capacity <<= 1;
+			}
+			return OBJECT_HEADER + 4 + 2 * REFERENCE + ARRAY_HEADER + 4L * capacity + ARRAY_HEADER + 8L * capacity;
+		}
+
+		static int hash(int gid) {
+			int hash = gid * 0x9e3779b9;
+			return hash ^ (hash >>> 16);
+		}
+
+		/**
+		 * @return The index of the gid, or -1 if it isn't in the palette.
+		 */
+		int indexOf(int gid) {
+			int recent = 0;
+			if (recentGids != null) {
+				recent = (gid ^ (gid >>> 20)) & (RECENT_SIZE - 1);
+				if (recentIndexes[recent] != 0 && recentGids[recent] == gid) {
+					return recentIndexes[recent] - 1;
+				}
+			}
+			int mask = table.length - 1;
+			for (int slot = hash(gid) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+				if (gids[table[slot] - 1] == gid) {
+					if (recentGids != null) {
+						recentGids[recent] = gid;
+						recentIndexes[recent] = table[slot];
+					}
+					return table[slot] - 1;
+				}
+			}
+			return -1;
+		}
+
+		private void dropCache() {
+			recentGids = null;
+			recentIndexes = null;
+		}
+
+		/**
+		 * Add a gid that isn't in the palette yet.
+		 *
+		 * @return The index of the gid.
+		 */
+		int add(int gid) {
+			if (size == gids.length) {
+				gids = Arrays.copyOf(gids, size * 2);
+			}
+			gids[size] = gid;
+			size++;
+			if (recentGids != null) {
+				int recent = (gid ^ (gid >>> 20)) & (RECENT_SIZE - 1);
+				recentGids[recent] = gid;
+				recentIndexes[recent] = size;
+			}
+			if (size * 2 > table.length) {
+				table = new int[table.length * 2];
+				for (int i = 0; i < size; i++) {
+					insert(i);
+				}
+			} else {
+				insert(size - 1);
+			}
+			return size - 1;
+		}
+
+		private void insert(int index) {
+			int mask = table.length - 1;
+			int slot = hash(gids[index]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = index + 1;
+		}
+
+		Palette copy() {
+			Palette copy = new Palette(false);
+			copy.gids = gids.clone();
+			copy.size = size;
+			copy.table = table.clone();
+			return copy;
+		}
+
+		void validate(MapFile<?> map) {
+			for (int i = 0; i < size; i++) {
+				// Throws if the gid doesn't belong to any tileset.
+				map.getTile(gids[i] & TileLayer.GID_MASK);
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Gids stored as 8 bit indexes into a palette. Used for layers with at most
+	 * <i>BYTE_PALETTE_SIZE</i> different gids.
+	 * </p>
+	 * 
+	 * <p>
+	 * A change that needs one more gid than that copies the indexes into ShortPalette storage.
+	 * </p>
+	 */
+	static final class BytePalette extends GidStorage {
+		private final byte[] indexes;
+		private final Palette palette;
+
+		BytePalette(byte[] indexes, Palette palette) {
+			this.indexes = indexes;
+			this.palette = palette;
+		}
+
+		static long estimate(long cells, int paletteSize) {
+			return OBJECT_HEADER + 2 * REFERENCE + ARRAY_HEADER + cells + Palette.estimate(paletteSize);
+		}
+
+		@Override
+		int get(int index) {
+			return palette.gids[indexes[index] & 0xff];
+		}
+
+		@Override
+		void get(int index, int[] dest, int destIndex, int length) {
+			int[] gids = palette.gids;
+			for (int i = 0; i < length; i++) {
+				dest[destIndex + i] = gids[indexes[index + i] & 0xff];
+			}
+		}
+
+		@Override
+		GidStorage set(int index, int gid) {
+			int paletteIndex = palette.indexOf(gid);
+			if (paletteIndex < 0) {
+				if (palette.size == BYTE_PALETTE_SIZE) {
+					short[] wider = new short[indexes.length];
+					for (int i = 0; i < indexes.length; i++) {
+						wider[i] = (short) (indexes[i] & 0xff);
+					}
+					return new ShortPalette(wider, palette).set(index, gid);
+				}
+				paletteIndex = palette.add(gid);
+			}
+			indexes[index] = (byte) paletteIndex;
+			return this;
+		}
+
+		@Override
+		GidStorage copy() {
+			return new BytePalette(indexes.clone(), palette.copy());
+		}
+
+		@Override
+		long estimatedBytes() {
+			return estimate(indexes.length, palette.gids.length);
+		}
+
+		@Override
+		String getKind() {
+			return "palette8";
+		}
+
+		@Override
+		void validate(MapFile<?> map, int count) {
+			palette.validate(map);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Gids stored as 16 bit indexes into a palette. Used for layers with at most
+	 * <i>SHORT_PALETTE_SIZE</i> different gids.
+	 * </p>
+	 * 
+	 * <p>
+	 * A change that needs one more gid than that copies the gids into an int array.
+	 * </p>
+	 */
+	static final class ShortPalette extends GidStorage {
+		private final short[] indexes;
+		private final Palette palette;
+
+		ShortPalette(short[] indexes, Palette palette) {
+			this.indexes = indexes;
+			this.palette = palette;
+		}
+
+		static long estimate(long cells, int paletteSize) {
+			return OBJECT_HEADER + 2 * REFERENCE + ARRAY_HEADER + 2 * cells + Palette.estimate(paletteSize);
+		}
+
+		@Override
+		int get(int index) {
+			return palette.gids[indexes[index] & 0xffff];
+		}
+
+		@Override
+		void get(int index, int[] dest, int destIndex, int length) {
+			int[] gids = palette.gids;
+			for (int i = 0; i < length; i++) {
+				dest[destIndex + i] = gids[indexes[index + i] & 0xffff];
+			}
+		}
+
+		@Override
+		GidStorage set(int index, int gid) {
+			int paletteIndex = palette.indexOf(gid);
+			if (paletteIndex < 0) {
+				if (palette.size == SHORT_PALETTE_SIZE) {
+					int[] array = new int[indexes.length];
+					get(0, array, 0, array.length);
+					array[index] = gid;
+					return new Array(array);
+				}
+				paletteIndex = palette.add(gid);
+			}
+			indexes[index] = (short) paletteIndex;
+			return this;
+		}
+
+		@Override
+		GidStorage copy() {
+			return new ShortPalette(indexes.clone(), palette.copy());
+		}
+
+		@Override
+		long estimatedBytes() {
+			return estimate(indexes.length, palette.gids.length);
+		}
+
+		@Override
+		String getKind() {
+			return "palette16";
+		}
+
+		@Override
+		void validate(MapFile<?> map, int count) {
+			palette.validate(map);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Gids stored in <i>PACKED_CHUNK_SIZE</i> chunks, each with its own palette of the gids it
+	 * uses, and a bit-packed index into that palette for each cell. A chunk with a single gid takes
+	 * no bits per cell, and one with all 1024 cells different takes 10. Empty chunks are left out.
+	 * </p>
+	 * 
+	 * <p>
+	 * Reading a cell takes constant time, though it's slower than the other kinds of storage. A
+	 * change that needs a gid the chunk's palette doesn't have room for repacks only that chunk,
+	 * dropping the gids it no longer uses.
+	 * </p>
+	 */
+	static final class Packed extends GidStorage {
+		private final int width;
+		private final int height;
+		private final int chunkColumns;
+		/**
+		 * The chunks, in row-major order. Null where every cell is empty.
+		 */
+		private final PackedChunk[] chunks;
+
+		Packed(int width, int height) {
+			this.width = width;
+			this.height = height;
+			chunkColumns = (width + PACKED_CHUNK_SIZE - 1) >> PACKED_CHUNK_SHIFT;
+			chunks = new PackedChunk[chunkColumns * ((height + PACKED_CHUNK_SIZE - 1) >> PACKED_CHUNK_SHIFT)];
+		}
+
+		/**
+		 * Pack a layer's gids.
+		 */
+		static Packed of(int[] gids, int width, int height) {
+			Packed storage = new Packed(width, height);
+			int[] cells = new int[PACKED_CHUNK_CELLS];
+			int[] scratch = new int[PACKED_CHUNK_CELLS];
+			for (int top = 0; top < height; top += PACKED_CHUNK_SIZE) {
+				int rows = Math.min(PACKED_CHUNK_SIZE, height - top);
+				for (int left = 0; left < width; left += PACKED_CHUNK_SIZE) {
+					int columns = Math.min(PACKED_CHUNK_SIZE, width - left);
+					// Cells past the edge of the layer are empty.
+					Arrays.fill(cells, 0);
+					for (int row = 0; row < rows; row++) {
+						System.arraycopy(gids, (top + row) * width + left, cells, row * PACKED_CHUNK_SIZE, columns);
+					}
+					storage.chunks[(top >> PACKED_CHUNK_SHIFT) * storage.chunkColumns + (left >> PACKED_CHUNK_SHIFT)] = PackedChunk.of(cells, scratch);
+				}
+			}
+			return storage;
+		}
+
+		/**
+		 * @return The bytes Packed storage takes, not counting its chunks.
+		 */
+		static long estimate(long chunkCount) {
+			return OBJECT_HEADER + 12 + REFERENCE + ARRAY_HEADER + REFERENCE * chunkCount;
+		}
+
+		private int chunkIndex(int x, int y) {
+			return (y >> PACKED_CHUNK_SHIFT) * chunkColumns + (x >> PACKED_CHUNK_SHIFT);
+		}
+
+		private static int cellIndex(int x, int y) {
+			return ((y & (PACKED_CHUNK_SIZE - 1)) << PACKED_CHUNK_SHIFT) + (x & (PACKED_CHUNK_SIZE - 1));
+		}
+
+		@Override
+		int get(int index) {
+			int x = index % width;
+			int y = index / width;
+			PackedChunk chunk = chunks[chunkIndex(x, y)];
+			return chunk == null ? 0 : chunk.get(cellIndex(x, y));
+		}
+
+		@Override
+		void get(int index, int[] dest, int destIndex, int length) {
+			while (length > 0) {
+				// Copy the part of the run that's in one chunk.
+				int x = index % width;
+				int y = index / width;
+				int cell = cellIndex(x, y);
+				int run = Math.min(length, Math.min(PACKED_CHUNK_SIZE - (x & (PACKED_CHUNK_SIZE - 1)), width - x));
+				PackedChunk chunk = chunks[chunkIndex(x, y)];
+				if (chunk == null) {
+					Arrays.fill(dest, destIndex, destIndex + run, 0);
+				} else {
+					chunk.get(cell, dest, destIndex, run);
+				}
+				index += run;
+				destIndex += run;
+				length -= run;
+			}
+		}
+
+		@Override
+		GidStorage set(int index, int gid) {
+			int x = index % width;
+			int y = index / width;
+			int chunkIndex = chunkIndex(x, y);
+			int cell = cellIndex(x, y);
+			PackedChunk chunk = chunks[chunkIndex];
+			if (chunk == null) {
+				if (gid == 0) {
+					return this;
+				}
+				chunk = new PackedChunk(0, new int[] { 0 }, null);
+				chunks[chunkIndex] = chunk;
+			}
+			int paletteIndex = chunk.indexOf(gid);
+			if (paletteIndex < 0) {
+				if (chunk.palette.length == 1 << chunk.bits) {
+					chunks[chunkIndex] = chunk.repack(cell, gid);
+					return this;
+				}
+				paletteIndex = chunk.add(gid);
+			}
+			chunk.setIndex(cell, paletteIndex);
+			return this;
+		}
+
+		@Override
+		GidStorage copy() {
+			Packed copy = new Packed(width, height);
+			for (int i = 0; i < chunks.length; i++) {
+				if (chunks[i] != null) {
+					copy.chunks[i] = chunks[i].copy();
+				}
+			}
+			return copy;
+		}
+
+		@Override
+		long estimatedBytes() {
+			long bytes = estimate(chunks.length);
+			for (PackedChunk chunk : chunks) {
+				if (chunk != null) {
+					bytes += chunk.estimatedBytes();
+				}
+			}
+			return bytes;
+		}
+
+		@Override
+		String getKind() {
+			return "packed";
+		}
+
+		@Override
+		void validate(MapFile<?> map, int count) {
+			for (PackedChunk chunk : chunks) {
+				if (chunk != null) {
+					for (int gid : chunk.palette) {
+						// Throws if the gid doesn't belong to any tileset.
+						map.getTile(gid & TileLayer.GID_MASK);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A chunk of Packed storage.
+	 */
+	static final class PackedChunk {
+		private static final int BYTES = OBJECT_HEADER + 4 + 2 * REFERENCE;
+
+		/**
+		 * The number of bits in each cell's index. The palette has room for <i>1 &lt;&lt; bits</i>
+		 * gids.
+		 */
+		final int bits;
+		/**
+		 * The gids used in the chunk. Gids that are no longer used are only dropped when the chunk
+		 * is repacked.
+		 */
+		int[] palette;
+		/**
+		 * The index of each cell, <i>bits</i> bits each. An index may span two words. Null if
+		 * <i>bits</i> is 0.
+		 */
+		private final long[] words;
+
+		PackedChunk(int bits, int[] palette, long[] words) {
+			this.bits = bits;
+			this.palette = palette;
+			this.words = words;
+		}
+
+		/**
+		 * Pack the gids of a chunk.
+		 *
+		 * @param cells
+		 *            The gids of the chunk's cells, in row-major order.
+		 * @param scratch
+		 *            An array the size of <i>cells</i> to use while packing.
+		 * @return The chunk, or null if every cell is empty.
+		 */
+		static PackedChunk of(int[] cells, int[] scratch) {
+			Palette palette = new Palette(false);
+			int lastGid = 0;
+			int lastIndex = -1;
+			for (int i = 0; i < cells.length; i++) {
+				if (lastIndex < 0 || cells[i] != lastGid) {
+					lastGid = cells[i];
+					lastIndex = palette.indexOf(lastGid);
+					if (lastIndex < 0) {
+						lastIndex = palette.add(lastGid);
+					}
+				}
+				scratch[i] = lastIndex;
+			}
+			if (palette.size == 1 && palette.gids[0] == 0) {
+				return null;
+			}
+
+			int bits = bitsFor(palette.size);
+			PackedChunk chunk = new PackedChunk(bits, Arrays.copyOf(palette.gids, palette.size), bits == 0 ? null : new long[(cells.length * bits + 63) >> 6]);
+			if (bits > 0) {
+				for (int i = 0; i < cells.length; i++) {
+					chunk.setIndex(i, scratch[i]);
+				}
+			}
+			return chunk;
+		}
+
+		/**
+		 * @return The bits needed for an index into a palette of <i>size</i> gids.
+		 */
+		private static int bitsFor(int size) {
+			return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+		}
+
+		/**
+		 * @return The bytes a chunk with <i>paletteSize</i> different gids takes.
+		 */
+		static long estimate(int paletteSize) {
+			int bits = bitsFor(paletteSize);
+			long bytes = BYTES + ARRAY_HEADER + 4L * paletteSize;
+			if (bits > 0) {
+				bytes += ARRAY_HEADER + 8L * ((PACKED_CHUNK_CELLS * bits + 63) >> 6);
+			}
+			return bytes;
+		}
+
+		long estimatedBytes() {
+			return BYTES + ARRAY_HEADER + 4L * palette.length + (words == null ? 0 : ARRAY_HEADER + 8L * words.length);
+		}
+
+		int get(int cell) {
+			if (bits == 0) {
+				return palette[0];
+			}
+			return palette[getIndex(cell)];
+		}
+
+		/**
+		 * Copy a run of cells in the same row into an array.
+		 */
+		void get(int cell, int[] dest, int destIndex, int length) {
+			if (bits == 0) {
+				Arrays.fill(dest, destIndex, destIndex + length, palette[0]);
+				return;
+			}
+			int[] gids = palette;
+			for (int i = 0; i < length; i++) {
+				dest[destIndex + i] = gids[getIndex(cell + i)];
+			}
+		}
+
+		private int getIndex(int cell) {
+			int bit = cell * bits;
+			int word = bit >>> 6;
+			int offset = bit & 63;
+			long value = words[word] >>> offset;
+			if (offset + bits > 64) {
+				value |= words[word + 1] << (64 - offset);
+			}
+			return (int) value & ((1 << bits) - 1);
+		}
+
+		void setIndex(int cell, int index) {
+			if (bits == 0) {
+				return;
+			}
+			long mask = (1L << bits) - 1;
+			int bit = cell * bits;
+			int word = bit >>> 6;
+			int offset = bit & 63;
+			words[word] = (words[word] & ~(mask << offset)) | ((long) index << offset);
+			if (offset + bits > 64) {
+				int shift = 64 - offset;
+				words[word + 1] = (words[word + 1] & ~(mask >>> shift)) | ((long) index >>> shift);
+			}
+		}
+
+		/**
+		 * @return The index of the gid in the palette, or -1 if it isn't there.
+		 */
+		int indexOf(int gid) {
+			for (int i = 0; i < palette.length; i++) {
+				if (palette[i] == gid) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Add a gid to the palette. There must be room for it.
+		 */
+		int add(int gid) {
+			palette = Arrays.copyOf(palette, palette.length + 1);
+			palette[palette.length - 1] = gid;
+			return palette.length - 1;
+		}
+
+		/**
+		 * @return A new chunk holding this chunk's gids, with one cell changed, or null if every
+		 *         cell is then empty.
+		 */
+		PackedChunk repack(int cell, int gid) {
+			int[] cells = new int[PACKED_CHUNK_CELLS];
+			for (int i = 0; i < cells.length; i++) {
+				cells[i] = get(i);
+			}
+			cells[cell] = gid;
+			return of(cells, new int[PACKED_CHUNK_CELLS]);
+		}
+
+		PackedChunk copy() {
+			return new PackedChunk(bits, palette.clone(), words == null ? null : words.clone());
+		}
+	}
+
+	/**
+	 * <p>
+	 * Gids stored in equally sized chunks, like the chunks of an infinite map. Cells that aren't
+	 * in any chunk are empty.
+	 * </p>
+	 * 
+	 * <p>
+	 * Each chunk of an infinite map keeps its encoded data until one of its cells is first read or
+	 * changed. The chunk is decoded then, and its gids are checked against the map's tilesets.
+	 * Reading an empty cell doesn't allocate anything.
+	 * </p>
+	 * 
+	 * <p>
+	 * This is also the sparse block storage chosen by <i>compact</i> for layers whose tiles are
+	 * clustered in a few places, with <i>BLOCK_SIZE</i> chunks that are already decoded.
+	 * </p>
+	 */
+	static final class Chunked extends GidStorage {
+		private final int width;
+		private final int height;
+		private final int chunkWidth;
+		private final int chunkHeight;
+		private final int chunkColumns;
+		/**
+		 * The base 2 log of the chunk width and height, or -1 if they aren't both powers of 2. Cells
+		 * in chunks like that are found with shifts instead of divisions.
+		 */
+		private final int shiftX;
+		private final int shiftY;
+		/**
+		 * The chunks, in row-major order. Null where there is no chunk.
+		 */
+		private final Chunk[] chunks;
+		/**
+		 * True if this is sparse block storage made by <i>blocks</i>.
+		 */
+		private boolean isBlocks;
+
+		/**
+		 * @param width
+		 *            The width of the storage, in cells. If it isn't a multiple of
+		 *            <i>chunkWidth</i>, the last column of chunks extends past the right edge.
+		 * @param height
+		 *            The height of the storage, in cells. If it isn't a multiple of
+		 *            <i>chunkHeight</i>, the last row of chunks extends past the bottom edge.
+		 */
+		Chunked(int width, int height, int chunkWidth, int chunkHeight) {
+			this.width = width;
+			this.height = height;
+			this.chunkWidth = chunkWidth;
+			this.chunkHeight = chunkHeight;
+			chunkColumns = (width + chunkWidth - 1) / chunkWidth;
+			chunks = new Chunk[chunkColumns * ((height + chunkHeight - 1) / chunkHeight)];
+			boolean isPowerOf2 = Integer.bitCount(chunkWidth) == 1 && Integer.bitCount(chunkHeight) == 1;
+			shiftX = isPowerOf2 ? Integer.numberOfTrailingZeros(chunkWidth) : -1;
+			shiftY = isPowerOf2 ? Integer.numberOfTrailingZeros(chunkHeight) : -1;
+		}
+
+		/**
+		 * @return The index in <i>chunks</i> of the chunk holding cell (x, y).
+		 */
+		private int chunkIndex(int x, int y) {
+			if (shiftX >= 0) {
+				return (y >> shiftY) * chunkColumns + (x >> shiftX);
+			}
+			return (y / chunkHeight) * chunkColumns + x / chunkWidth;
+		}
+
+		/**
+		 * @return The index of cell (x, y) in its chunk's gids.
+		 */
+		private int cellIndex(int x, int y) {
+			if (shiftX >= 0) {
+				return ((y & (chunkHeight - 1)) << shiftX) + (x & (chunkWidth - 1));
+			}
+			return (y % chunkHeight) * chunkWidth + x % chunkWidth;
+		}
+
+		/**
+		 * Copy a layer's gids into <i>BLOCK_SIZE</i> chunks, leaving out the chunks that are
+		 * empty.
+		 */
+		static Chunked blocks(int[] gids, int width, int height) {
+			Chunked storage = new Chunked(width, height, BLOCK_SIZE, BLOCK_SIZE);
+			storage.isBlocks = true;
+			for (int top = 0; top < height; top += BLOCK_SIZE) {
+				int rows = Math.min(BLOCK_SIZE, height - top);
+				for (int left = 0; left < width; left += BLOCK_SIZE) {
+					int columns = Math.min(BLOCK_SIZE, width - left);
+					if (isEmpty(gids, width, left, top, columns, rows)) {
+						continue;
+					}
+					int[] block = new int[BLOCK_SIZE * BLOCK_SIZE];
+					for (int row = 0; row < rows; row++) {
+						System.arraycopy(gids, (top + row) * width + left, block, row * BLOCK_SIZE, columns);
+					}
+					storage.setChunk(left, top, new Chunk(block));
+				}
+			}
+			return storage;
+		}
+
+		private static boolean isEmpty(int[] gids, int width, int left, int top, int columns, int rows) {
+			for (int row = 0; row < rows; row++) {
+				int start = (top + row) * width + left;
+				for (int i = start; i < start + columns; i++) {
+					if (gids[i] != 0) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return The bytes that Chunked storage with decoded chunks would take.
+		 */
+		static long estimate(long chunkCount, long usedChunks, int cellsPerChunk) {
+			return OBJECT_HEADER + 24 + ARRAY_HEADER + REFERENCE * chunkCount + usedChunks * (Chunk.BYTES + ARRAY_HEADER + 4L * cellsPerChunk);
+		}
+
+		/**
+		 * @param x
+		 *            The column of the chunk's top-left cell. Must be a multiple of
+		 *            <i>chunkWidth</i>.
+		 * @param y
+		 *            The row of the chunk's top-left cell. Must be a multiple of
+		 *            <i>chunkHeight</i>.
+		 */
+		void setChunk(int x, int y, Chunk chunk) {
+			chunks[chunkIndex(x, y)] = chunk;
+		}
+
+		@Override
+		int get(int index) {
+			int x = index % width;
+			int y = index / width;
+			Chunk chunk = chunks[chunkIndex(x, y)];
+			if (chunk == null) {
+				return 0;
+			}
+			return chunk.getGids()[cellIndex(x, y)];
+		}
+
+		@Override
+		void get(int index, int[] dest, int destIndex, int length) {
+			while (length > 0) {
+				// Copy the part of the run that's in one chunk.
+				int x = index % width;
+				int y = index / width;
+				int run = Math.min(length, Math.min(chunkWidth - cellIndex(x, 0), width - x));
+				Chunk chunk = chunks[chunkIndex(x, y)];
+				if (chunk == null) {
+					Arrays.fill(dest, destIndex, destIndex + run, 0);
+				} else {
+					System.arraycopy(chunk.getGids(), cellIndex(x, y), dest, destIndex, run);
+				}
+				index += run;
+				destIndex += run;
+				length -= run;
+			}
+		}
+
+		@Override
+		GidStorage set(int index, int gid) {
+			int x = index % width;
+			int y = index / width;
+			int chunkIndex = chunkIndex(x, y);
+			if (chunks[chunkIndex] == null) {
+				if (gid == 0) {
+					return this;
+				}
+				chunks[chunkIndex] = new Chunk(new int[chunkWidth * chunkHeight]);
+			}
+			chunks[chunkIndex].getGids()[cellIndex(x, y)] = gid;
+			return this;
+		}
+
+		@Override
+		GidStorage copy() {
+			Chunked copy = new Chunked(width, height, chunkWidth, chunkHeight);
+			copy.isBlocks = isBlocks;
+			for (int i = 0; i < chunks.length; i++) {
+				if (chunks[i] != null) {
+					copy.chunks[i] = chunks[i].copy();
+				}
+			}
+			return copy;
+		}
+
+		@Override
+		long estimatedBytes() {
+			long bytes = estimate(chunks.length, 0, 0);
+			for (Chunk chunk : chunks) {
+				if (chunk != null) {
+					bytes += chunk.estimatedBytes();
+				}
+			}
+			return bytes;
+		}
+
+		@Override
+		String getKind() {
+			return isBlocks ? "blocks" : "chunks";
+		}
+
+		@Override
+		void validate(MapFile<?> map, int count) {
+			for (Chunk chunk : chunks) {
+				// Chunks that haven't been decoded yet are checked when they are.
+				int[] decoded = chunk == null ? null : chunk.gids;
+				if (decoded != null) {
+					for (int gid : decoded) {
+						// Throws if the gid doesn't belong to any tileset.
+						map.getTile(gid & TileLayer.GID_MASK);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Gids stored in a hash table of the cells that aren't empty. This is the sparse storage
+	 * chosen by <i>compact</i> for layers with a few scattered tiles.
+	 * </p>
+	 * 
+	 * <p>
+	 * Once changes grow the table past the size of an int array, the gids are copied into one.
+	 * </p>
+	 */
+	static final class Cells extends GidStorage {
+		private static final int NO_CELL = -1;
+		private static final int MIN_CAPACITY = 16;
+
+		/**
+		 * The number of cells in the layer.
+		 */
+		private final int count;
+		/**
+		 * The index of the cell in each slot, or NO_CELL. The length is a power of 2, and the table is
+		 * kept at most half full.
+		 */
+		private int[] indexes;
+		private int[] values;
+		/**
+		 * The number of slots that aren't NO_CELL.
+		 */
+		private int used;
+
+		private Cells(int count, int capacity) {
+			this.count = count;
+			indexes = new int[capacity];
+			Arrays.fill(indexes, NO_CELL);
+			values = new int[capacity];
+		}
+
+		/**
+		 * Copy the cells of a layer that aren't empty.
+		 * 
+		 * @param usedCells
+		 *            The number of cells that aren't empty.
+		 */
+		static Cells of(int[] gids, long usedCells) {
+			Cells storage = new Cells(gids.length, capacityFor(usedCells));
+			for (int i = 0; i < gids.length; i++) {
+				if (gids[i] != 0) {
+					storage.put(i, gids[i]);
+				}
+			}
+			return storage;
+		}
+
+		/**
+		 * @return The table size for the given number of cells.
+		 */
+		static int capacityFor(long usedCells) {
+			int capacity = MIN_CAPACITY;
+			while (capacity < usedCells * 2 && capacity < (1 << 30)) {
+				capacity <<= 1;
+			}
+			return capacity;
+		}
+
+		/**
+		 * @return The bytes Cells storage with the given table size takes.
+		 */
+		static long estimate(int capacity) {
+			return OBJECT_HEADER + 16 + 2 * (ARRAY_HEADER + 4L * capacity);
+		}
+
+		/**
+		 * @return The slot holding the cell, or the empty slot it would go in.
+		 */
+		private int slot(int index) {
+			int mask = indexes.length - 1;
+			int hash = index * 0x9e3779b9;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (indexes[slot] != NO_CELL && indexes[slot] != index) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void put(int index, int gid) {
+			int slot = slot(index);
+			if (indexes[slot] == NO_CELL) {
+				indexes[slot] = index;
+				used++;
+			}
+			values[slot] = gid;
+		}
+
+		@Override
+		int get(int index) {
+			int slot = slot(index);
+			return indexes[slot] == index ? values[slot] : 0;
+		}
+
+		@Override
+		void get(int index, int[] dest, int destIndex, int length) {
+			for (int i = 0; i < length; i++) {
+				dest[destIndex + i] = get(index + i);
+			}
+		}
+
+		@Override
+		GidStorage set(int index, int gid) {
+			int slot = slot(index);
+			if (indexes[slot] == index) {
+				values[slot] = gid;
+				return this;
+			}
+			if (gid == 0) {
+				return this;
+			}
+			if ((used + 1) * 2 > indexes.length) {
+				if (estimate(indexes.length * 2) > ARRAY_HEADER + 4L * count) {
+					int[] array = new int[count];
+					get(0, array, 0, count);
+					array[index] = gid;
+					return new Array(array);
+				}
+				grow();
+			}
+			put(index, gid);
+			return this;
+		}
+
+		/**
+		 * Double the size of the table, dropping cells that were emptied by <i>set</i>.
+		 */
+		private void grow() {
+			int[] oldIndexes = indexes;
+			int[] oldValues = values;
+			indexes = new int[oldIndexes.length * 2];
+			Arrays.fill(indexes, NO_CELL);
+			values = new int[indexes.length];
+			used = 0;
+			for (int i = 0; i < oldIndexes.length; i++) {
+				if (oldIndexes[i] != NO_CELL && oldValues[i] != 0) {
+					put(oldIndexes[i], oldValues[i]);
+				}
+			}
+		}
+
+		@Override
+		GidStorage copy() {
+			Cells copy = new Cells(count, indexes.length);
+			System.arraycopy(indexes, 0, copy.indexes, 0, indexes.length);
+			System.arraycopy(values, 0, copy.values, 0, values.length);
+			copy.used = used;
+			return copy;
+		}
+
+		@Override
+		long estimatedBytes() {
+			return estimate(indexes.length);
+		}
+
+		@Override
+		String getKind() {
+			return "cells";
+		}
+
+		@Override
+		void validate(MapFile<?> map, int count) {
+			for (int i = 0; i < indexes.length; i++) {
+				if (indexes[i] != NO_CELL) {
+					// Throws if the gid doesn't belong to any tileset.
+					map.getTile(values[i] & TileLayer.GID_MASK);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A chunk of a Chunked storage, decoded the first time its gids are needed.
+	 */
+	static final class Chunk {
+		/**
+		 * The bytes a Chunk takes, not counting its arrays.
+		 */
+		static final int BYTES = OBJECT_HEADER + 6 * REFERENCE + 4 * 4;
+
+		/**
+		 * The path of the data element the chunk was in, for error messages. Null once the chunk is
+		 * decoded.
+		 */
+		private String xmlPath;
+		/**
+		 * The encoding of the data element. Null once the chunk is decoded.
+		 */
+		private String encoding;
+		/**
+		 * The compression of the data element, or null if the data isn't compressed.
+		 */
+		private String compression;
+		/**
+		 * The text of the chunk element. Null once the chunk is decoded.
+		 */
+		private byte[] encoded;
+		/**
+		 * The map the chunk is in, used to check the gids. Null once the chunk is decoded.
+		 */
+		private MapFile<?> map;
+		/**
+		 * The column of the chunk's top-left cell in the map.
+		 */
+		final int x;
+		/**
+		 * The row of the chunk's top-left cell in the map.
+		 */
+		final int y;
+		final int width;
+		final int height;
+		private volatile int[] gids;
+
+		/**
+		 * A chunk that hasn't been decoded yet.
+		 * 
+		 * @param xmlPath
+		 *            The path of the data element the chunk was in, for error messages.
+		 * @param encoding
+		 *            The encoding of the data element.
+		 * @param compression
+		 *            The compression of the data element, or null.
+		 * @param encoded
+		 *            The text of the chunk element, in ASCII.
+		 * @param map
+		 *            The map the chunk is in.
+		 * @param x
+		 *            The column of the chunk's top-left cell in the map.
+		 * @param y
+		 *            The row of the chunk's top-left cell in the map.
+		 */
+		Chunk(String xmlPath, String encoding, String compression, byte[] encoded, MapFile<?> map, int x, int y, int width, int height) {
+			this.xmlPath = xmlPath;
+			this.encoding = encoding;
+			this.compression = compression;
+			this.encoded = encoded;
+			this.map = map;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * A chunk that's already decoded.
+		 */
+		Chunk(int[] gids) {
+			this.gids = gids;
+			x = 0;
+			y = 0;
+			width = 0;
+			height = 0;
+		}
+
+		int[] getGids() {
+			int[] ret = gids;
+			if (ret != null) {
+				return ret;
+			}
+			synchronized (this) {
+				if (gids == null) {
+					gids = decode(true);
+					xmlPath = null;
+					encoding = null;
+					compression = null;
+					encoded = null;
+					map = null;
+				}
+				return gids;
+			}
+		}
+
+		/**
+		 * Decode the chunk, without keeping the result. Must not be called after <i>getGids</i>.
+		 * 
+		 * @param check
+		 *            If true, the gids are checked against the map's tilesets, which must be
+		 *            loaded.
+		 */
+		int[] decode(boolean check) {
+			Reader data = new InputStreamReader(new ByteArrayInputStream(encoded), StandardCharsets.US_ASCII);
+			try {
+				int[] decoded = TileLayer.decode(xmlPath, encoding, compression, data, width, height, new Rect(0, 0, width, height));
+				if (check) {
+					for (int gid : decoded) {
+						// Throws if the gid doesn't belong to any tileset.
+						map.getTile(gid & TileLayer.GID_MASK);
+					}
+				}
+				return decoded;
+			} catch (FileParsingException e) {
+				throw new FileParsingException("Error in the chunk at (" + x + ", " + y + "): " + e.getMessage(), e);
+			}
+		}
+
+		synchronized long estimatedBytes() {
+			if (gids != null) {
+				return BYTES + ARRAY_HEADER + 4L * gids.length;
+			}
+			return BYTES + ARRAY_HEADER + encoded.length;
+		}
+
+		Chunk copy() {
+			synchronized (this) {
+				if (gids != null) {
+					return new Chunk(gids.clone());
+				}
+				// The encoded data is never changed, so it can be shared.
+				return new Chunk(xmlPath, encoding, compression, encoded, map, x, y, width, height);
+			}
+		}
+	}
+}
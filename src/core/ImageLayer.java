@@ -1,7 +1,5 @@
 package core;
 
-import java.io.IOException;
-import java.io.InputStream;
 import org.w3c.dom.Element;
 import privateUtil.Util;
 import util.AttributeNotFoundException;
@@ -20,7 +18,8 @@ public class ImageLayer<IMG> extends Layer {
 	 */
 	public String imagePath;
 	/**
-	 * The image returned by the ImageDelegate.
+	 * The image returned by the ImageDelegate. Null if the map was loaded with
+	 * <i>LoadOptions.headless</i>.
 	 */
 	public IMG image;
 	/**
@@ -47,7 +46,7 @@ public class ImageLayer<IMG> extends Layer {
 	 */
 	public int height;
 
-	ImageLayer(Element element, ResourceLoaderDelegate<IMG> delegate) {
+	ImageLayer(Element element, ResourceLoaderDelegate<IMG> delegate, String baseDirectory) {
 		super(element);
 
 		Element imageTag = Util.getSingleTag(element, "image", true);
@@ -73,18 +72,8 @@ public class ImageLayer<IMG> extends Layer {
 			height = -1;
 		}
 
-		// TODO: Handle relative paths correctly.
-		image = delegate.getCachedImage(imagePath, "");
-		if (image == null) {
-			InputStream imageFile = delegate.openFile(imagePath, "");
-			image = delegate.loadImage(imageFile, transparentColor);
-			try {
-				imageFile.close();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				throw new RuntimeException("IOException handler not yet written in ImageLayer of ImageLayer.", e);
-			}
-			delegate.cacheImage(imagePath, "", image);
+		if (delegate != null) {
+			image = Util.loadImage(delegate, Util.resolvePath(baseDirectory, imagePath), transparentColor);
 		}
 	}
 
@@ -2,13 +2,8 @@ package core;
 
 import java.util.ArrayList;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import privateUtil.Util;
 import util.AttributeNotFoundException;
-import util.FileParsingException;
 import util.LayerNotFoundException;
-import util.ResourceLoaderDelegate;
 import util.Vector;
 
 /**
@@ -23,12 +18,16 @@ public class LayerGroup<IMG> extends Layer {
 	 */
 	public ArrayList<Layer> layers;
 
-	LayerGroup(Element element, MapFile<IMG> parent, ResourceLoaderDelegate<IMG> delegate) {
+	/**
+	 * Read the group's attributes and properties. The sub-layers are added by MapReader as they
+	 * are streamed in.
+	 */
+	LayerGroup(Element element) {
 		super(element);
-		this.init(element, parent, delegate);
+		layers = new ArrayList<>();
 	}
 
-	LayerGroup(Element element, MapFile<IMG> parent, ResourceLoaderDelegate<IMG> delegate, boolean ignoreMissing) {
+	LayerGroup(Element element, boolean ignoreMissing) {
 		super();
 		try {
 			Layer temp = new Layer(element) {};
@@ -51,36 +50,7 @@ public class LayerGroup<IMG> extends Layer {
 			}
 		}
 		super.isVisible = true;
-		this.init(element, parent, delegate);
-	}
-
-	private void init(Element element, MapFile<IMG> parent, ResourceLoaderDelegate<IMG> delegate) {
 		layers = new ArrayList<>();
-		NodeList allNodes = element.getChildNodes();
-		for (int i = 0; i < allNodes.getLength(); i++) {
-			Node node = allNodes.item(i);
-			if (node.getNodeType() != Node.ELEMENT_NODE) {
-				continue;
-			}
-			Element layer = (Element) node;
-
-			String name = layer.getNodeName();
-			if (name.equals("layer")) {
-				layers.add(new TileLayer<IMG>(layer, parent));
-			} else if (name.equals("objectgroup")) {
-				layers.add(new ObjectLayer<IMG>(layer, parent));
-			} else if (name.equals("group")) {
-				layers.add(new LayerGroup<>(layer, parent, delegate));
-			} else if (name.equals("imagelayer")) {
-				layers.add(new ImageLayer<>(layer, delegate));
-			} else if (name.equals("tileset")) {
-				if (layers.size() != 0) {
-					throw new FileParsingException(Util.getFullXmlPath(layer) + ": Found 'tileset' element after layer elements");
-				}
-			} else {
-				throw new FileParsingException("Unknown element type: '" + name + "'");
-			}
-		}
 	}
 
 	/**
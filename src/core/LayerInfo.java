@@ -0,0 +1,81 @@
+package core;
+
+import org.w3c.dom.Element;
+import privateUtil.Util;
+
+/**
+ * <p>
+ * A summary of a layer, read from its attributes and properties without reading its contents.
+ * </p>
+ *
+ * <p>
+ * See <i>MapMetadata</i> and <i>LoadOptions.layerFilter</i>.
+ * </p>
+ */
+public class LayerInfo {
+	public static enum Type {
+		TILES, OBJECTS, IMAGE, GROUP
+	}
+
+	/**
+	 * The kind of layer. Cannot be null.
+	 */
+	public Type type;
+	/**
+	 * The ID of the layer. This is unique within the entire map file.
+	 */
+	public int id;
+	/**
+	 * The name of the layer. Cannot be null.
+	 */
+	public String name;
+	/**
+	 * Whether the layer is visible. Doesn't take the visibility of its groups into account.
+	 */
+	public boolean isVisible;
+	/**
+	 * The properties of the layer. Can be null.
+	 */
+	public TMXProperties properties;
+	/**
+	 * The group that contains this layer. Null if the layer isn't in a group.
+	 */
+	public LayerInfo parent;
+
+	/**
+	 * Read a layer's attributes, and its properties if they have already been read into
+	 * <i>element</i>.
+	 */
+	LayerInfo(Element element, Type type, LayerInfo parent) {
+		this.type = type;
+		this.parent = parent;
+		id = Util.getIntAttribute(element, "id");
+		name = Util.getStringAttribute(element, "name");
+		isVisible = (Util.getIntAttribute(element, "visible", 1) == 1);
+		Element propertiesTag = Util.getSingleTag(element, "properties", false);
+		if (propertiesTag != null) {
+			properties = new TMXProperties(propertiesTag);
+		}
+	}
+
+	/**
+	 * Manually create a LayerInfo instance. No fields are initialized.
+	 */
+	public LayerInfo() {}
+
+	/**
+	 * @return The names of this layer's groups and of this layer, separated by '/'. For example,
+	 *         "world/decals/grass".
+	 */
+	public String getPath() {
+		if (parent == null) {
+			return name;
+		}
+		return parent.getPath() + "/" + name;
+	}
+
+	@Override
+	public String toString() {
+		return type + " layer '" + getPath() + "' (id " + id + ")";
+	}
+}
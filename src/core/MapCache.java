@@ -0,0 +1,316 @@
+package core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import privateUtil.Util;
+import util.FileParsingException;
+import util.LoadOptions;
+import util.ResourceLoaderDelegate;
+
+/**
+ * <p>
+ * An on-disk cache of compiled maps, so maps that haven't changed since they were last loaded
+ * don't have to be parsed again.
+ * </p>
+ *
+ * <p>
+ * For each map, the cache keeps a compiled map (see <i>MapFile.compile</i>) and a manifest with
+ * the SHA-256 hash of the map file and of every tileset file and image it uses, including the
+ * images used by its tileset files. <i>load</i> hashes those files again, and only uses the
+ * compiled map if none of them have changed. Otherwise, the map is compiled again and the entry
+ * is replaced.
+ * </p>
+ *
+ * <p>
+ * Entries are replaced with atomic file moves, so several threads or processes can share a cache
+ * directory. Old compiled maps are deleted when they are replaced, if the file system allows it.
+ * </p>
+ */
+public class MapCache {
+	private static final String MANIFEST_HEADER = "tmx-map-cache 1";
+	private static final String SNAPSHOT_PREFIX = "snapshot ";
+
+	private final Path directory;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * @param directory
+	 *            The directory to keep the cache in. It's created if it doesn't exist.
+	 */
+	public MapCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Load a map, using the cached compiled map if the map and everything it uses are unchanged.
+	 *
+	 * @param filename
+	 *            The file to load. The file is opened using <i>fileDelegate</i>.
+	 * @param fileDelegate
+	 *            An object used when opening files, loading images, and slicing images into tile
+	 *            images. Cannot be null.
+	 * @param options
+	 *            Options that control how the map is loaded. Cannot be null.
+	 * @param <IMG>
+	 *            The image type that <i>fileDelegate</i> returns.
+	 * @return The map.
+	 * @throws UncheckedIOException
+	 *             If the cache directory can't be written to.
+	 */
+	public <IMG> MapFile<IMG> load(String filename, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options) {
+		String mapPath = Util.resolvePath("", filename);
+		String key = toHex(newDigest().digest(mapPath.getBytes(StandardCharsets.UTF_8)));
+		Path manifestFile = directory.resolve(key + ".manifest");
+
+		Manifest manifest = readManifest(manifestFile);
+		if (manifest != null && manifest.isCurrent(fileDelegate)) {
+			try {
+				MapFile<IMG> map = MapFile.loadCompiled(directory.resolve(manifest.snapshot), fileDelegate, options);
+				hitCount.incrementAndGet();
+				return map;
+			} catch (FileParsingException e) {
+				// The compiled map is missing or damaged, so it's rebuilt below.
+			}
+		}
+
+		missCount.incrementAndGet();
+		return rebuild(mapPath, key, manifestFile, manifest, fileDelegate, options);
+	}
+
+	/**
+	 * @return The number of loads that used a cached compiled map.
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return The number of loads that had to compile the map.
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	private <IMG> MapFile<IMG> rebuild(String mapPath, String key, Path manifestFile, Manifest oldManifest, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options) {
+		Path snapshot;
+		try {
+			Files.createDirectories(directory);
+			snapshot = Files.createTempFile(directory, key + "-", ".tmxb");
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error while writing to map cache: '" + directory + "'", e);
+		}
+
+		Manifest manifest = new Manifest();
+		manifest.snapshot = snapshot.getFileName().toString();
+		MapFile<IMG> map;
+		boolean succeeded = false;
+		try {
+			ArrayList<String> tilesetFiles = new ArrayList<>();
+			ArrayList<String> images = new ArrayList<>();
+			// The map is hashed as it's compiled, so the hash always matches the compiled map.
+			MessageDigest digest = newDigest();
+			InputStream file = new DigestInputStream(fileDelegate.openFile(Util.getFileName(mapPath), Util.getDirectory(mapPath)), digest);
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(snapshot))) {
+				CompiledMap.write(file, Util.getDirectory(mapPath), out, tilesetFiles, images);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Error while writing to map cache: '" + directory + "'", e);
+			} finally {
+				try {
+					file.close();
+				} catch (IOException e) {
+					System.out.println("MapCache: Error while closing file stream: '" + mapPath + "'");
+				}
+			}
+			manifest.hashes.put(mapPath, toHex(digest.digest()));
+
+			for (String tilesetFile : new LinkedHashSet<>(tilesetFiles)) {
+				byte[] contents = readFile(fileDelegate, tilesetFile);
+				manifest.hashes.put(tilesetFile, toHex(newDigest().digest(contents)));
+				// The images used by a tileset file are relative to the tileset file.
+				NodeList tilesetImages = Util.loadXmlFile(new ByteArrayInputStream(contents)).getElementsByTagName("image");
+				for (int i = 0; i < tilesetImages.getLength(); i++) {
+					images.add(Util.resolvePath(Util.getDirectory(tilesetFile), ((Element) tilesetImages.item(i)).getAttribute("source")));
+				}
+			}
+			for (String image : new LinkedHashSet<>(images)) {
+				manifest.hashes.put(image, toHex(newDigest().digest(readFile(fileDelegate, image))));
+			}
+
+			// Only record the entry once the compiled map is known to load.
+			map = MapFile.loadCompiled(snapshot, fileDelegate, options);
+			writeManifest(manifestFile, manifest);
+			succeeded = true;
+		} finally {
+			if (!succeeded) {
+				deleteSnapshot(snapshot);
+			}
+		}
+
+		if (oldManifest != null && !oldManifest.snapshot.equals(manifest.snapshot)) {
+			deleteSnapshot(directory.resolve(oldManifest.snapshot));
+		}
+		return map;
+	}
+
+	private static void deleteSnapshot(Path snapshot) {
+		try {
+			Files.deleteIfExists(snapshot);
+		} catch (IOException e) {
+			// It may still be mapped by a loaded map. It's only wasted disk space.
+		}
+	}
+
+	private static byte[] readFile(ResourceLoaderDelegate<?> fileDelegate, String path) {
+		InputStream file = fileDelegate.openFile(Util.getFileName(path), Util.getDirectory(path));
+		try {
+			ByteArrayOutputStream contents = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1 << 16];
+			int count;
+			while ((count = file.read(buffer)) != -1) {
+				contents.write(buffer, 0, count);
+			}
+			return contents.toByteArray();
+		} catch (IOException e) {
+			throw new FileParsingException("Error while reading '" + path + "'", e);
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				System.out.println("MapCache: Error while closing file stream: '" + path + "'");
+			}
+		}
+	}
+
+	private static Manifest readManifest(Path manifestFile) {
+		if (!Files.exists(manifestFile)) {
+			return null;
+		}
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+		if (lines.size() < 2 || !lines.get(0).equals(MANIFEST_HEADER) || !lines.get(1).startsWith(SNAPSHOT_PREFIX)) {
+			return null;
+		}
+
+		Manifest manifest = new Manifest();
+		manifest.snapshot = lines.get(1).substring(SNAPSHOT_PREFIX.length());
+		for (String line : lines.subList(2, lines.size())) {
+			int split = line.indexOf(' ');
+			if (split < 0) {
+				return null;
+			}
+			manifest.hashes.put(line.substring(split + 1), line.substring(0, split));
+		}
+		return manifest;
+	}
+
+	private void writeManifest(Path manifestFile, Manifest manifest) {
+		StringBuilder contents = new StringBuilder();
+		contents.append(MANIFEST_HEADER).append('\n');
+		contents.append(SNAPSHOT_PREFIX).append(manifest.snapshot).append('\n');
+		for (Map.Entry<String, String> entry : manifest.hashes.entrySet()) {
+			contents.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+		}
+
+		try {
+			Path temp = Files.createTempFile(directory, manifestFile.getFileName().toString(), ".tmp");
+			Files.write(temp, contents.toString().getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(temp, manifestFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, manifestFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error while writing to map cache: '" + directory + "'", e);
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 is not available.", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+			builder.append(Character.forDigit(b & 0xf, 16));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * A cache entry: the compiled map, and the hash of every file it depends on.
+	 */
+	private static class Manifest {
+		/**
+		 * The file name of the compiled map, in the cache directory.
+		 */
+		String snapshot;
+		/**
+		 * The hash of each file, by resolved path. The map file is first.
+		 */
+		LinkedHashMap<String, String> hashes = new LinkedHashMap<>();
+
+		boolean isCurrent(ResourceLoaderDelegate<?> fileDelegate) {
+			for (Map.Entry<String, String> entry : hashes.entrySet()) {
+				String path = entry.getKey();
+				InputStream file;
+				try {
+					file = fileDelegate.openFile(Util.getFileName(path), Util.getDirectory(path));
+				} catch (RuntimeException e) {
+					// The file is gone, so the map has to be loaded again to report the error.
+					return false;
+				}
+				MessageDigest digest = newDigest();
+				try {
+					byte[] buffer = new byte[1 << 16];
+					int count;
+					while ((count = file.read(buffer)) != -1) {
+						digest.update(buffer, 0, count);
+					}
+				} catch (IOException e) {
+					return false;
+				} finally {
+					try {
+						file.close();
+					} catch (IOException e) {
+						System.out.println("MapCache: Error while closing file stream: '" + path + "'");
+					}
+				}
+				if (!toHex(digest.digest()).equals(entry.getValue())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
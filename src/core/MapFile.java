@@ -1,12 +1,26 @@
 package core;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
 import org.w3c.dom.Element;
+import privateUtil.ByteBufferInputStream;
 import privateUtil.Util;
 import util.FileParsingException;
+import util.LoadOptions;
+import util.LoadProgressListener;
 import util.ResourceLoaderDelegate;
+import util.TilesetRegistry;
 
 /**
  * This class is the main class for the TMX library. It loads a file and all its tilesets.
@@ -94,12 +108,23 @@ public class MapFile<IMG> {
 	 * The height of the map and its layers, in tiles.
 	 */
 	public int mapHeight;
+	/**
+	 * True if this is an infinite map. The tile layers of an infinite map are made of chunks, and
+	 * may extend past <i>mapWidth</i> and <i>mapHeight</i> in any direction. See TileLayer.
+	 */
+	public boolean isInfinite;
 
 	/**
 	 * All layers are contained within this layer group.
 	 */
 	public LayerGroup<IMG> root;
 
+	/**
+	 * Lookup table for <i>getTile</i>. Built on first use. Replaced as a whole, never modified, so
+	 * it can be read from any thread.
+	 */
+	private volatile TileIndex<IMG> tileIndex;
+
 	/**
 	 * 
 	 * <p>
@@ -113,7 +138,8 @@ public class MapFile<IMG> {
 	 * 
 	 * <p>
 	 * It can take some time to parse a file. This constructor should be used in a new
-	 * thread to avoid freezing the application while the file is parsed.
+	 * thread to avoid freezing the application while the file is parsed, or use <i>loadAsync</i>
+	 * instead.
 	 * </p>
 	 * 
 	 * @param filename
@@ -123,15 +149,195 @@ public class MapFile<IMG> {
 	 *            images. Cannot be null.
 	 */
 	public MapFile(String filename, ResourceLoaderDelegate<IMG> fileDelegate) {
-		InputStream file = fileDelegate.openFile(filename, "");
-		Element root = Util.loadXmlFile(file);
+		this(filename, fileDelegate, new LoadOptions());
+	}
 
+	/**
+	 * Open and parse a map file, with extra options. See <i>MapFile(String, ResourceLoaderDelegate)</i>
+	 * for more info.
+	 * 
+	 * @param filename
+	 *            The file to load. The file is opened using <i>fileDelegate</i>.
+	 * @param fileDelegate
+	 *            An object used when opening files, loading images, and slicing images into tile
+	 *            images. Cannot be null.
+	 * @param options
+	 *            Options that control how the map is loaded. Cannot be null.
+	 */
+	public MapFile(String filename, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options) {
+		this(filename, fileDelegate, options, null, null);
+	}
+
+	/**
+	 * @param listener
+	 *            Told about the progress of the load. May be null.
+	 * @param cancelled
+	 *            Checked while loading. If it returns true, the load is abandoned with a
+	 *            CancellationException. May be null.
+	 */
+	MapFile(String filename, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options, LoadProgressListener listener, BooleanSupplier cancelled) {
+		InputStream file = fileDelegate.openFile(filename, "");
 		try {
-			file.close();
+			String baseDirectory = Util.getDirectory(Util.resolvePath("", filename));
+			new MapReader<>(this, fileDelegate, options, baseDirectory, listener, cancelled).read(file);
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				System.out.println("MapFile: Error while closing file stream: '" + filename + "'");
+			}
+		}
+	}
+
+	/**
+	 * Used by <i>loadCompiled</i>, and by MapMetadata to read the map header.
+	 */
+	MapFile() {}
+
+	/**
+	 * <p>
+	 * Convert a map file to a compiled map, which can be loaded with <i>loadCompiled</i>.
+	 * </p>
+	 * 
+	 * <p>
+	 * A compiled map holds the map's tile layers as packed binary gids, so loading it skips nearly
+	 * all XML parsing. Tilesets are not compiled into the map; they are still loaded from their
+	 * files, through the ResourceLoaderDelegate, when the compiled map is loaded. The paths of
+	 * tileset files and images are stored relative to the directory that <i>filename</i> is
+	 * relative to.
+	 * </p>
+	 * 
+	 * <p>
+	 * The map's tilesets are not loaded, so gids are only checked when the compiled map is loaded.
+	 * </p>
+	 * 
+	 * @param filename
+	 *            The map file to compile. The file is opened using <i>fileDelegate</i>.
+	 * @param fileDelegate
+	 *            An object used to open the map file. Cannot be null.
+	 * @param output
+	 *            The file to write the compiled map to. Replaced if it already exists.
+	 * @throws UncheckedIOException
+	 *             If the compiled map can't be written.
+	 */
+	public static void compile(String filename, ResourceLoaderDelegate<?> fileDelegate, Path output) {
+		InputStream file = fileDelegate.openFile(filename, "");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+			CompiledMap.write(file, Util.getDirectory(Util.resolvePath("", filename)), out, new ArrayList<>(), new ArrayList<>());
 		} catch (IOException e) {
-			System.out.println("TilesetEntry: Error while closing file stream: '" + filename + "'");
+			throw new UncheckedIOException("Error while writing compiled map: '" + output + "'", e);
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				System.out.println("MapFile: Error while closing file stream: '" + filename + "'");
+			}
 		}
+	}
 
+	/**
+	 * <p>
+	 * Load a map compiled by <i>compile</i>.
+	 * </p>
+	 * 
+	 * <p>
+	 * The file is memory-mapped, and the gids of each tile layer are read straight from the mapped
+	 * file, so they don't take any heap until a layer is changed with <i>TileLayer.setGid</i>.
+	 * Tilesets and images are loaded through <i>fileDelegate</i>, like any other map.
+	 * </p>
+	 * 
+	 * @param file
+	 *            The compiled map. It's opened directly, not through <i>fileDelegate</i>.
+	 * @param fileDelegate
+	 *            An object used when opening files, loading images, and slicing images into tile
+	 *            images. Cannot be null.
+	 * @param options
+	 *            Options that control how the map is loaded. Cannot be null. <i>layerPool</i> is
+	 *            ignored, since there is nothing to decode.
+	 * @param <IMG>
+	 *            The image type that <i>fileDelegate</i> returns.
+	 * @return The map.
+	 * @throws FileParsingException
+	 *             If the file can't be read, or isn't a compiled map.
+	 */
+	public static <IMG> MapFile<IMG> loadCompiled(Path file, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options) {
+		CompiledMap compiled = CompiledMap.open(file);
+		MapFile<IMG> map = new MapFile<>();
+		// Paths in a compiled map are already resolved.
+		MapReader<IMG> reader = new MapReader<>(map, fileDelegate, options, "", null, null);
+		reader.compiledLayers = compiled.layers;
+		reader.read(new ByteBufferInputStream(compiled.skeleton));
+		return map;
+	}
+
+	/**
+	 * <p>
+	 * Open and parse a map file on an executor. See <i>MapFile(String, ResourceLoaderDelegate)</i>
+	 * for more info.
+	 * </p>
+	 * 
+	 * <p>
+	 * Cancelling the returned future (or completing it some other way) stops the load at the next
+	 * layer, object, or block of the map file read. Tilesets that are already being loaded by
+	 * <i>options.executor</i> are not interrupted.
+	 * </p>
+	 * 
+	 * @param filename
+	 *            The file to load. The file is opened using <i>fileDelegate</i>.
+	 * @param fileDelegate
+	 *            An object used when opening files, loading images, and slicing images into tile
+	 *            images. Cannot be null.
+	 * @param options
+	 *            Options that control how the map is loaded. Cannot be null.
+	 * @param listener
+	 *            Told about the progress of the load, on the loading thread. May be null.
+	 * @param executor
+	 *            Runs the load. Cannot be null.
+	 * @param <IMG>
+	 *            The image type that <i>fileDelegate</i> returns.
+	 * @return A future that completes with the map, or with the exception that stopped the load.
+	 */
+	public static <IMG> CompletableFuture<MapFile<IMG>> loadAsync(String filename, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options, LoadProgressListener listener, Executor executor) {
+		CompletableFuture<MapFile<IMG>> future = new CompletableFuture<>();
+		executor.execute(() -> {
+			if (future.isDone()) {
+				return;
+			}
+			try {
+				future.complete(new MapFile<>(filename, fileDelegate, options, listener, future::isDone));
+			} catch (RuntimeException | Error e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Open and parse a map file on the common fork/join pool, with the default options. See
+	 * <i>loadAsync(String, ResourceLoaderDelegate, LoadOptions, LoadProgressListener, Executor)</i>.
+	 * 
+	 * @param filename
+	 *            The file to load. The file is opened using <i>fileDelegate</i>.
+	 * @param fileDelegate
+	 *            An object used when opening files, loading images, and slicing images into tile
+	 *            images. Cannot be null.
+	 * @param listener
+	 *            Told about the progress of the load, on the loading thread. May be null.
+	 * @param <IMG>
+	 *            The image type that <i>fileDelegate</i> returns.
+	 * @return A future that completes with the map, or with the exception that stopped the load.
+	 */
+	public static <IMG> CompletableFuture<MapFile<IMG>> loadAsync(String filename, ResourceLoaderDelegate<IMG> fileDelegate, LoadProgressListener listener) {
+		return loadAsync(filename, fileDelegate, new LoadOptions(), listener, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Read the attributes of the map element. Called by MapReader before any tilesets or layers are read.
+	 * 
+	 * @param root
+	 *            The map element. Only its attributes are used.
+	 */
+	void readHeader(Element root) {
 		// Check the file's version string.
 		if (!root.getAttribute("version").equals("1.2")) {
 			throw new FileParsingException("Unsupported Tiled version: " + root.getAttribute("version"));
@@ -195,25 +401,73 @@ public class MapFile<IMG> {
 		tileHeight = Util.getIntAttribute(root, "tileheight");
 		mapWidth = Util.getIntAttribute(root, "width");
 		mapHeight = Util.getIntAttribute(root, "height");
-
-		// Look for tilesets.
+		isInfinite = (Util.getIntAttribute(root, "infinite", 0) == 1);
 		tilesets = new ArrayList<>();
-		for (Element tilesetEntryElement : Util.getAllTags(root, "tileset")) {
-			tilesets.add(new TilesetEntry<>(tilesetEntryElement, fileDelegate));
+	}
+
+	/**
+	 * Copy the header and tilesets of another map loaded from the same file. Called by MapReader
+	 * instead of <i>readHeader</i>. The tilesets are shared, not copied.
+	 * 
+	 * @param other
+	 *            The map to copy from.
+	 */
+	void copyHeader(MapFile<IMG> other) {
+		orientation = other.orientation;
+		renderOrder = other.renderOrder;
+		staggerAxis = other.staggerAxis;
+		staggerIndex = other.staggerIndex;
+		hexSideLength = other.hexSideLength;
+		m_hasHexSideLength = other.m_hasHexSideLength;
+		backgroundColor = new TMXColor(other.backgroundColor.red, other.backgroundColor.blue, other.backgroundColor.green, other.backgroundColor.alpha);
+		tileWidth = other.tileWidth;
+		tileHeight = other.tileHeight;
+		mapWidth = other.mapWidth;
+		mapHeight = other.mapHeight;
+		isInfinite = other.isInfinite;
+		tilesets = new ArrayList<>(other.tilesets);
+		// The index is never changed once it's built, so it can be shared too.
+		tileIndex = other.tileIndex;
+	}
+
+	/**
+	 * <p>
+	 * Free the memory holding the gids of every tile layer in this map. Layers kept in direct
+	 * memory (see <i>LoadOptions.offHeapTileLayers</i>) are freed now, instead of when they're
+	 * garbage collected.
+	 * </p>
+	 * 
+	 * <p>
+	 * Every tile layer is left empty, as by <i>TileLayer.close</i>, so the map should not be used
+	 * afterwards. The map must not be in use by another thread while it's being closed. Tilesets
+	 * are not affected, and may still be shared with other maps.
+	 * </p>
+	 */
+	public void close() {
+		if (root != null) {
+			closeLayers(root);
 		}
+	}
 
-		// Read the map layers, using a layerGroup to do the parsing.
-		this.root = new LayerGroup<>(root, this, fileDelegate, true);
-		Element propertiesTag = Util.getSingleTag(root, "properties", false);
-		if (propertiesTag != null) {
-			properties = new TMXProperties(propertiesTag);
-		} else {
-			properties = null;
+	private static void closeLayers(LayerGroup<?> group) {
+		for (Layer layer : group.layers) {
+			if (layer instanceof LayerGroup) {
+				closeLayers((LayerGroup<?>) layer);
+			} else if (layer instanceof TileLayer) {
+				((TileLayer<?>) layer).close();
+			}
 		}
 	}
 
 	/**
+	 * <p>
 	 * Find a tile given its global id.
+	 * </p>
+	 * 
+	 * <p>
+	 * This is a single array lookup for most maps. If the tilesets' gids are spread too far apart
+	 * for a lookup table to be worth the memory, a binary search over the tilesets is used instead.
+	 * </p>
 	 * 
 	 * @param gid
 	 *            The ID to lookup.
@@ -224,15 +478,143 @@ public class MapFile<IMG> {
 			return null;
 		}
 
-		for (TilesetEntry<IMG> entry : tilesets) {
-			if (gid >= entry.firstGid && gid < entry.firstGid + entry.tiles.tileCount) {
-				return entry.tiles.tiles[gid - entry.firstGid];
+		TileIndex<IMG> index = tileIndex;
+		if (index == null) {
+			index = buildTileIndex();
+		}
+
+		if (index.tilesByGid != null) {
+			if (gid > 0 && gid < index.tilesByGid.length) {
+				Tile<IMG> tile = index.tilesByGid[gid];
+				if (tile != null) {
+					return tile;
+				}
+			}
+		} else {
+			// Find the last tileset that starts at or before this gid.
+			int low = 0;
+			int high = index.firstGids.length - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				if (index.firstGids[middle] <= gid) {
+					low = middle + 1;
+				} else {
+					high = middle - 1;
+				}
+			}
+			if (high >= 0) {
+				Tileset<IMG> tileset = index.tilesets[high];
+				int localId = gid - index.firstGids[high];
+				if (localId < tileset.tileCount) {
+					return tileset.tiles[localId];
+				}
 			}
 		}
 
 		throw new RuntimeException("Unknown tile gid '" + gid + "'");
 	}
 
+	/**
+	 * <p>
+	 * Rebuild the table used by <i>getTile</i>.
+	 * </p>
+	 * 
+	 * <p>
+	 * The table is built automatically the first time it is needed. If <i>tilesets</i> is modified
+	 * afterwards, this must be called before looking up any more tiles.
+	 * </p>
+	 */
+	public void rebuildTileIndex() {
+		buildTileIndex();
+	}
+
+	private TileIndex<IMG> buildTileIndex() {
+		TileIndex<IMG> index = new TileIndex<>(tilesets);
+		tileIndex = index;
+		return index;
+	}
+
+	void invalidateTileIndex() {
+		tileIndex = null;
+	}
+
+	/**
+	 * Add a tileset to this map, and update the gid lookup tables.
+	 * 
+	 * @param entry
+	 *            The tileset and its first gid in this map.
+	 */
+	public void addTileset(TilesetEntry<IMG> entry) {
+		tilesets.add(entry);
+		buildTileIndex();
+	}
+
+	/**
+	 * Find the gid of the first tile in a tileset.
+	 * 
+	 * @param tileset
+	 *            A tileset used by this map.
+	 * @return The gid of the tileset's first tile in this map.
+	 * @throws RuntimeException
+	 *             If the tileset isn't used by this map.
+	 */
+	public int getFirstGid(Tileset<IMG> tileset) {
+		TileIndex<IMG> index = tileIndex;
+		if (index == null) {
+			index = buildTileIndex();
+		}
+
+		Integer firstGid = index.firstGidByTileset.get(tileset);
+		if (firstGid == null) {
+			throw new RuntimeException("Can't find parent tileset in the given MapFile.");
+		}
+		return firstGid;
+	}
+
+	/**
+	 * Find the gid of every tile in an array.
+	 * 
+	 * @param tiles
+	 *            Tiles from tilesets used by this map. Null entries are allowed.
+	 * @return The gid of each tile, or 0 for null entries.
+	 * @throws RuntimeException
+	 *             If a tile's tileset isn't used by this map.
+	 */
+	public int[] getGids(Tile<IMG>[] tiles) {
+		int[] gids = new int[tiles.length];
+		getGids(tiles, gids);
+		return gids;
+	}
+
+	/**
+	 * Find the gid of every tile in an array, without allocating.
+	 * 
+	 * @param tiles
+	 *            Tiles from tilesets used by this map. Null entries are allowed.
+	 * @param dest
+	 *            The array to store the gids in. Must be at least as long as <i>tiles</i>. Null
+	 *            entries are stored as 0.
+	 * @throws RuntimeException
+	 *             If a tile's tileset isn't used by this map.
+	 */
+	public void getGids(Tile<IMG>[] tiles, int[] dest) {
+		// Neighboring tiles usually come from the same tileset, so remember the last one.
+		Tileset<IMG> lastTileset = null;
+		int lastFirstGid = 0;
+		for (int i = 0; i < tiles.length; i++) {
+			Tile<IMG> tile = tiles[i];
+			if (tile == null) {
+				dest[i] = 0;
+				continue;
+			}
+			if (tile.parent != lastTileset) {
+				lastFirstGid = getFirstGid(tile.parent);
+				lastTileset = tile.parent;
+			}
+			dest[i] = lastFirstGid + tile.localId;
+		}
+	}
+
 	public boolean hasHexSideLength() {
 		return m_hasHexSideLength;
 	}
@@ -260,25 +642,127 @@ public class MapFile<IMG> {
 		 */
 		public int firstGid;
 
-		TilesetEntry(Element element, ResourceLoaderDelegate<IMG> fileDelegate) {
+		/**
+		 * Create an entry for a tileset that's already loaded. Use <i>MapFile.addTileset</i> to add it
+		 * to a map.
+		 * 
+		 * @param tiles
+		 *            The tileset. Cannot be null.
+		 * @param firstGid
+		 *            The gid of the first tile in the tileset.
+		 */
+		public TilesetEntry(Tileset<IMG> tiles, int firstGid) {
+			this.tiles = tiles;
+			this.firstGid = firstGid;
+		}
+
+		TilesetEntry(Element element, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options, String baseDirectory) {
 			firstGid = Util.getIntAttribute(element, "firstgid", 1);
 			if (element.hasAttribute("source")) {
-				String filename = element.getAttribute("source");
-				// TODO: Properly handle relative paths.
-				tiles = fileDelegate.getCachedTileset(filename, "");
-				if (tiles == null) {
-					InputStream file = fileDelegate.openFile(filename, "");
-					tiles = new Tileset<>(Util.loadXmlFile(file), fileDelegate);
+				String path = Util.resolvePath(baseDirectory, element.getAttribute("source"));
+				String filename = Util.getFileName(path);
+				String tilesetDirectory = Util.getDirectory(path);
+				@SuppressWarnings("unchecked")
+				TilesetRegistry<IMG> registry = (TilesetRegistry<IMG>) options.tilesetRegistry;
+				if (registry != null) {
+					tiles = registry.getTileset(filename, tilesetDirectory, options, () -> loadTilesetFile(filename, tilesetDirectory, fileDelegate, options));
+				} else {
+					tiles = loadTilesetFile(filename, tilesetDirectory, fileDelegate, options);
+				}
+			} else {
+				tiles = new Tileset<>(element, fileDelegate, options, baseDirectory);
+			}
+		}
+
+		private static <IMG> Tileset<IMG> loadTilesetFile(String filename, String tilesetDirectory, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options) {
+			// A cached tileset can be used by a lazy or headless load, but a lazy or headless tileset
+			// isn't cached, since its tiles have no images yet.
+			Tileset<IMG> tiles = fileDelegate.getCachedTileset(filename, tilesetDirectory);
+			if (tiles == null) {
+				InputStream file = fileDelegate.openFile(filename, tilesetDirectory);
+				try {
+					// Images in a tileset file are relative to the tileset file, not the map.
+					tiles = new Tileset<>(Util.loadXmlFile(file), fileDelegate, options, tilesetDirectory);
+				} finally {
 					try {
 						file.close();
 					} catch (IOException e) {
-						System.out.println("TilesetEntry: Error while closing file stream: '" + filename + "'");
+						System.out.println("TilesetEntry: Error while closing file stream: '" + tilesetDirectory + filename + "'");
 					}
-					fileDelegate.cacheTileset(filename, "", tiles);
 				}
-			} else {
-				tiles = new Tileset<>(element, fileDelegate);
+				if (!options.headless && !options.lazyTileImages) {
+					fileDelegate.cacheTileset(filename, tilesetDirectory, tiles);
+				}
 			}
+			return tiles;
+		}
+	}
+
+	/**
+	 * The gid lookup table used by <i>getTile</i>.
+	 */
+	private static class TileIndex<IMG> {
+		private static final long MAX_TABLE_SIZE = 1 << 24;
+
+		/**
+		 * A table of tiles indexed by gid, or null if the gids are too sparse.
+		 */
+		private Tile<IMG>[] tilesByGid;
+		/**
+		 * The first gid of each tileset, sorted. Used when <i>tilesByGid</i> is null.
+		 */
+		private int[] firstGids;
+		/**
+		 * The tileset for each entry in <i>firstGids</i>.
+		 */
+		private Tileset<IMG>[] tilesets;
+		/**
+		 * The first gid of each tileset, keyed by identity. Used by <i>getFirstGid</i>.
+		 */
+		private IdentityHashMap<Tileset<IMG>, Integer> firstGidByTileset;
+
+		TileIndex(ArrayList<TilesetEntry<IMG>> entries) {
+			// If a tileset is used twice, the first entry wins, like the old linear search.
+			firstGidByTileset = new IdentityHashMap<>();
+			for (TilesetEntry<IMG> entry : entries) {
+				firstGidByTileset.putIfAbsent(entry.tiles, entry.firstGid);
+			}
+
+			ArrayList<TilesetEntry<IMG>> sorted = new ArrayList<>(entries);
+			sorted.sort((a, b) -> Integer.compare(a.firstGid, b.firstGid));
+
+			firstGids = new int[sorted.size()];
+			tilesets = newTilesetArray(sorted.size());
+			long totalTiles = 0;
+			long endGid = 1;
+			for (int i = 0; i < sorted.size(); i++) {
+				TilesetEntry<IMG> entry = sorted.get(i);
+				firstGids[i] = entry.firstGid;
+				tilesets[i] = entry.tiles;
+				totalTiles += entry.tiles.tileCount;
+				endGid = Math.max(endGid, (long) entry.firstGid + entry.tiles.tileCount);
+			}
+
+			// Only use a table if at least half of it would be filled.
+			if (endGid <= MAX_TABLE_SIZE && endGid <= 2 * totalTiles + 256) {
+				tilesByGid = newTileArray((int) endGid);
+				for (TilesetEntry<IMG> entry : sorted) {
+					if (entry.firstGid > 0) {
+						System.arraycopy(entry.tiles.tiles, 0, tilesByGid, entry.firstGid, entry.tiles.tileCount);
+					}
+				}
+			}
+		}
+
+		// Generic arrays can't be created directly.
+		@SuppressWarnings("unchecked")
+		private static <IMG> Tileset<IMG>[] newTilesetArray(int length) {
+			return (Tileset<IMG>[]) new Tileset<?>[length];
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <IMG> Tile<IMG>[] newTileArray(int length) {
+			return (Tile<IMG>[]) new Tile<?>[length];
 		}
 	}
 }
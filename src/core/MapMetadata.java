@@ -0,0 +1,273 @@
+package core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.Element;
+import privateUtil.Util;
+import util.FileParsingException;
+import util.ResourceLoaderDelegate;
+
+/**
+ * <p>
+ * A summary of a map file: the map's attributes and properties, its tileset references, and the
+ * attributes and properties of its layers.
+ * </p>
+ *
+ * <p>
+ * Loading a summary only reads the map file. Tileset files and images are not opened, and tile
+ * data and objects are skipped without being decoded, so this is much faster than loading a
+ * MapFile. It's meant for indexing many maps, like a map browser would.
+ * </p>
+ *
+ * <p>
+ * The map's attributes are read by MapFile itself, so they're always read the same way as when
+ * the map is loaded. They can't be changed.
+ * </p>
+ */
+public class MapMetadata {
+	/**
+	 * The tilesets used by the map, in the order they appear in the file. Cannot be null.
+	 */
+	public ArrayList<TilesetReference> tilesets;
+	/**
+	 * Every layer in the map, in the order they appear in the file. Layers in groups come right
+	 * after their group. Cannot be null.
+	 */
+	public ArrayList<LayerInfo> layers;
+	/**
+	 * Map properties. Can be null.
+	 */
+	public TMXProperties properties;
+	/**
+	 * The map's attributes, read by <i>MapFile.readHeader</i>. Only the header fields are set; its
+	 * tilesets and layers are empty, so it's never given out.
+	 */
+	final MapFile<?> header;
+
+	private XMLStreamReader reader;
+	private String baseDirectory;
+
+	/**
+	 * Read the summary of a map file.
+	 *
+	 * @param filename
+	 *            The file to read. The file is opened using <i>fileDelegate</i>.
+	 * @param fileDelegate
+	 *            An object used to open the map file. No other files are opened, and no images
+	 *            are loaded. Cannot be null.
+	 * @throws FileParsingException
+	 *             If the file isn't a valid map file.
+	 */
+	public MapMetadata(String filename, ResourceLoaderDelegate<?> fileDelegate) {
+		header = new MapFile<>();
+		baseDirectory = Util.getDirectory(Util.resolvePath("", filename));
+		InputStream file = fileDelegate.openFile(filename, "");
+		try {
+			read(file);
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				System.out.println("MapMetadata: Error while closing file stream: '" + filename + "'");
+			}
+		}
+	}
+
+	/**
+	 * Manually create a MapMetadata instance. No fields are initialized, and the map's attributes
+	 * are all null, 0, or false.
+	 */
+	public MapMetadata() {
+		header = new MapFile<>();
+	}
+
+	private void read(InputStream file) {
+		reader = Util.openXmlStream(file);
+		try {
+			reader.nextTag();
+			if (!reader.getLocalName().equals("map")) {
+				throw new FileParsingException("Expected 'map' element, found '" + reader.getLocalName() + "'");
+			}
+
+			Element mapElement = Util.readElementHeader(reader, Util.newDocument());
+			header.readHeader(mapElement);
+
+			tilesets = new ArrayList<>();
+			layers = new ArrayList<>();
+			readGroup(mapElement, null);
+		} catch (XMLStreamException e) {
+			throw Util.xmlError(e);
+		} finally {
+			Util.closeXmlStream(reader);
+			reader = null;
+		}
+	}
+
+	/**
+	 * Read the children of a group, or of the map itself if <i>group</i> is null. The reader must be
+	 * positioned on the group's start tag.
+	 */
+	private void readGroup(Element groupElement, LayerInfo group) {
+		while (Util.nextChildElement(reader)) {
+			String name = reader.getLocalName();
+			if (name.equals("properties")) {
+				TMXProperties groupProperties = new TMXProperties(Util.readElement(reader, groupElement));
+				if (group == null) {
+					properties = groupProperties;
+				} else {
+					group.properties = groupProperties;
+				}
+			} else if (name.equals("layer")) {
+				readLayer(groupElement, LayerInfo.Type.TILES, group);
+			} else if (name.equals("objectgroup")) {
+				readLayer(groupElement, LayerInfo.Type.OBJECTS, group);
+			} else if (name.equals("imagelayer")) {
+				readLayer(groupElement, LayerInfo.Type.IMAGE, group);
+			} else if (name.equals("group")) {
+				Element childElement = Util.readElementHeader(reader, groupElement);
+				LayerInfo child = new LayerInfo(childElement, LayerInfo.Type.GROUP, group);
+				layers.add(child);
+				readGroup(childElement, child);
+				Util.discardElement(childElement);
+			} else if (name.equals("tileset")) {
+				if (group != null) {
+					// Tilesets in groups aren't used by MapFile either.
+					Util.skipElement(reader);
+					continue;
+				}
+				Element tilesetElement = Util.readElementHeader(reader, groupElement);
+				tilesets.add(new TilesetReference(tilesetElement, baseDirectory));
+				Util.skipElement(reader);
+				Util.discardElement(tilesetElement);
+			} else if (name.equals("editorsettings")) {
+				Util.skipElement(reader);
+			} else {
+				throw new FileParsingException("Unknown element type: '" + name + "'");
+			}
+		}
+	}
+
+	/**
+	 * Read a layer's attributes and properties, and skip its contents.
+	 */
+	private void readLayer(Element parentElement, LayerInfo.Type type, LayerInfo group) {
+		Element layerElement = Util.readElementHeader(reader, parentElement);
+		LayerInfo layer = new LayerInfo(layerElement, type, group);
+		while (Util.nextChildElement(reader)) {
+			if (reader.getLocalName().equals("properties")) {
+				layer.properties = new TMXProperties(Util.readElement(reader, layerElement));
+			} else {
+				Util.skipElement(reader);
+			}
+		}
+		layers.add(layer);
+		Util.discardElement(layerElement);
+	}
+
+	public MapFile.Orientation getOrientation() {
+		return header.orientation;
+	}
+
+	public MapFile.TileRenderOrder getRenderOrder() {
+		return header.renderOrder;
+	}
+
+	public MapFile.StaggerAxis getStaggerAxis() {
+		return header.staggerAxis;
+	}
+
+	public MapFile.StaggerIndex getStaggerIndex() {
+		return header.staggerIndex;
+	}
+
+	/**
+	 * @return A copy of the color to display under all layers.
+	 */
+	public TMXColor getBackgroundColor() {
+		TMXColor color = header.backgroundColor;
+		if (color == null) {
+			return null;
+		}
+		return new TMXColor(color.red, color.blue, color.green, color.alpha);
+	}
+
+	public boolean hasHexSideLength() {
+		return header.hasHexSideLength();
+	}
+
+	public float getHexSideLength() {
+		return header.getHexSideLength();
+	}
+
+	/**
+	 * @return The width of each tile. See <i>MapFile.tileWidth</i>.
+	 */
+	public int getTileWidth() {
+		return header.tileWidth;
+	}
+
+	/**
+	 * @return The height of each tile. See <i>MapFile.tileHeight</i>.
+	 */
+	public int getTileHeight() {
+		return header.tileHeight;
+	}
+
+	/**
+	 * @return The width of the map and its layers, in tiles.
+	 */
+	public int getMapWidth() {
+		return header.mapWidth;
+	}
+
+	/**
+	 * @return The height of the map and its layers, in tiles.
+	 */
+	public int getMapHeight() {
+		return header.mapHeight;
+	}
+
+	/**
+	 * @return True if this is an infinite map.
+	 */
+	public boolean isInfinite() {
+		return header.isInfinite;
+	}
+
+	/**
+	 * A tileset used by the map. Tileset files are not opened, so only what's in the map file is
+	 * known.
+	 */
+	public static class TilesetReference {
+		/**
+		 * The gid of the first tile in the tileset.
+		 */
+		public int firstGid;
+		/**
+		 * The path of the tileset file, resolved against the map's directory. Null if the tileset
+		 * is embedded in the map.
+		 */
+		public String source;
+		/**
+		 * The name of an embedded tileset. Null if the tileset is in its own file.
+		 */
+		public String name;
+
+		TilesetReference(Element element, String baseDirectory) {
+			firstGid = Util.getIntAttribute(element, "firstgid", 1);
+			if (element.hasAttribute("source")) {
+				source = Util.resolvePath(baseDirectory, element.getAttribute("source"));
+			} else {
+				name = Util.getStringAttribute(element, "name");
+			}
+		}
+
+		/**
+		 * Manually create a TilesetReference instance. No fields are initialized.
+		 */
+		public TilesetReference() {}
+	}
+}
@@ -0,0 +1,602 @@
+package core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import privateUtil.CountingInputStream;
+import privateUtil.Util;
+import privateUtil.XmlTextReader;
+import util.AttributeParsingErrorException;
+import util.FileParsingException;
+import util.LoadOptions;
+import util.LoadProgressListener;
+import util.Rect;
+import util.ResourceLoaderDelegate;
+import util.Vector;
+
+/**
+ * <p>
+ * Builds a MapFile from a streaming XML reader.
+ * </p>
+ *
+ * <p>
+ * The whole map is never held in memory as a Dom. Each layer, tileset, and object is read
+ * into a small Dom fragment (so the element-based constructors and their error messages can be
+ * reused), then discarded. The contents of tile <i>data</i> elements are never put into the
+ * Dom; they are streamed straight into the TileLayer.
+ * </p>
+ *
+ * <p>
+ * The skeleton of a compiled map is read the same way, except each tile layer's gids come from the
+ * compiled map instead of its data element.
+ * </p>
+ *
+ * @param <IMG>
+ *            The IMG param of the MapFile. See MapFile for more info.
+ */
+final class MapReader<IMG> {
+	private MapFile<IMG> map;
+	private ResourceLoaderDelegate<IMG> delegate;
+	private LoadOptions options;
+	/**
+	 * The directory of the map file, used to resolve the paths of tilesets and images.
+	 */
+	private String baseDirectory;
+	/**
+	 * Told about the progress of the load. May be null.
+	 */
+	private LoadProgressListener listener;
+	/**
+	 * Returns true if the load should be abandoned. May be null.
+	 */
+	private BooleanSupplier cancelled;
+	/**
+	 * The gids of each tile layer, if a compiled map is being read. Null for TMX files.
+	 */
+	IntBuffer[] compiledLayers;
+	/**
+	 * The cells of each tile layer to load, or null to load whole layers. Objects outside the
+	 * region are left out too.
+	 */
+	Rect region;
+	/**
+	 * A map loaded earlier from the same file, whose header and tilesets are reused instead of
+	 * being read again. Null to read them from the file.
+	 */
+	MapFile<IMG> template;
+	private int tilesetsLoaded;
+	private int layersLoaded;
+	private XMLStreamReader reader;
+	/**
+	 * Tilesets being loaded by <i>options.executor</i>, in the order they appear in the file.
+	 */
+	private ArrayList<CompletableFuture<MapFile.TilesetEntry<IMG>>> pendingTilesets = new ArrayList<>();
+	/**
+	 * Tile layers that were read before the tilesets finished loading.
+	 */
+	private ArrayList<TileLayer<IMG>> unvalidatedLayers = new ArrayList<>();
+	/**
+	 * Layers being decoded by <i>options.layerPool</i>.
+	 */
+	private ArrayList<PendingLayer<IMG>> pendingLayers = new ArrayList<>();
+
+	MapReader(MapFile<IMG> map, ResourceLoaderDelegate<IMG> delegate, LoadOptions options, String baseDirectory, LoadProgressListener listener, BooleanSupplier cancelled) {
+		this.map = map;
+		this.delegate = delegate;
+		this.options = options;
+		this.baseDirectory = baseDirectory;
+		this.listener = listener;
+		this.cancelled = cancelled;
+	}
+
+	void read(InputStream file) {
+		if (listener != null || cancelled != null) {
+			file = new CountingInputStream(file, this::bytesRead);
+		}
+		reader = Util.openXmlStream(file);
+		try {
+			reader.nextTag();
+			if (!reader.getLocalName().equals("map")) {
+				throw new FileParsingException("Expected 'map' element, found '" + reader.getLocalName() + "'");
+			}
+
+			Document document = Util.newDocument();
+			Element mapElement = Util.readElementHeader(reader, document);
+			if (template != null) {
+				map.copyHeader(template);
+			} else {
+				map.readHeader(mapElement);
+			}
+			map.root = readGroup(mapElement, true, null);
+			awaitTilesets();
+			awaitLayers();
+
+			Element propertiesTag = Util.getSingleTag(mapElement, "properties", false);
+			if (propertiesTag != null) {
+				map.properties = new TMXProperties(propertiesTag);
+			} else {
+				map.properties = null;
+			}
+		} catch (XMLStreamException e) {
+			throw Util.xmlError(e);
+		} finally {
+			// Only left over if the load failed. Tasks that haven't started yet are skipped.
+			for (CompletableFuture<MapFile.TilesetEntry<IMG>> entry : pendingTilesets) {
+				entry.cancel(false);
+			}
+			for (PendingLayer<IMG> pending : pendingLayers) {
+				pending.layer.cancel(false);
+			}
+			Util.closeXmlStream(reader);
+		}
+	}
+
+	private void bytesRead(long bytesRead) {
+		checkCancelled();
+		if (listener != null) {
+			listener.bytesRead(bytesRead);
+		}
+	}
+
+	private void tilesetLoaded() {
+		tilesetsLoaded++;
+		if (listener != null) {
+			listener.tilesetLoaded(tilesetsLoaded);
+		}
+	}
+
+	private void addLayer(LayerGroup<IMG> group, Layer layer) {
+		group.layers.add(layer);
+		layerLoaded();
+	}
+
+	private void layerLoaded() {
+		layersLoaded++;
+		if (listener != null) {
+			listener.layerLoaded(layersLoaded);
+		}
+	}
+
+	/**
+	 * @throws CancellationException
+	 *             If the load has been cancelled.
+	 */
+	private void checkCancelled() {
+		if (cancelled != null && cancelled.getAsBoolean()) {
+			throw new CancellationException("The map load was cancelled");
+		}
+	}
+
+	/**
+	 * Read the children of a group (or of the map itself). The reader must be positioned on the
+	 * group's start tag, and <i>groupElement</i> must already hold its attributes.
+	 * 
+	 * @param parentInfo
+	 *            The summary of the group's parent, for <i>options.layerFilter</i>. Null for the
+	 *            map itself and its direct children, or if there is no filter.
+	 */
+	private LayerGroup<IMG> readGroup(Element groupElement, boolean isRoot, LayerInfo parentInfo) {
+		LayerGroup<IMG> group = null;
+		LayerInfo groupInfo = null;
+		while (Util.nextChildElement(reader)) {
+			checkCancelled();
+			String name = reader.getLocalName();
+			if (name.equals("properties")) {
+				Element propertiesTag = Util.readElement(reader, groupElement);
+				if (group != null && !isRoot) {
+					// The group was already created, so the Layer constructor didn't see these.
+					group.properties = new TMXProperties(propertiesTag);
+				}
+				continue;
+			}
+
+			// All the group's properties have been read by now, so the group can be created.
+			if (group == null) {
+				group = isRoot ? new LayerGroup<>(groupElement, true) : new LayerGroup<>(groupElement);
+				if (!isRoot && options.layerFilter != null) {
+					groupInfo = new LayerInfo(groupElement, LayerInfo.Type.GROUP, parentInfo);
+				}
+			}
+
+			if (name.equals("layer")) {
+				readTileLayer(group, groupElement, groupInfo);
+			} else if (name.equals("objectgroup")) {
+				// Tile objects need the tilesets.
+				awaitTilesets();
+				ObjectLayer<IMG> layer = readObjectLayer(groupElement, groupInfo);
+				if (layer != null) {
+					addLayer(group, layer);
+				}
+			} else if (name.equals("group")) {
+				Element childElement = Util.readElementHeader(reader, groupElement);
+				addLayer(group, readGroup(childElement, false, groupInfo));
+				Util.discardElement(childElement);
+			} else if (name.equals("imagelayer")) {
+				Element layerElement = Util.readElement(reader, groupElement);
+				if (isSkipped(layerElement, LayerInfo.Type.IMAGE, groupInfo)) {
+					// The image is never loaded.
+				} else if (options.layerPool != null) {
+					Element copy = copyElement(layerElement);
+					ResourceLoaderDelegate<IMG> imageDelegate = options.headless ? null : delegate;
+					submitLayer(group, () -> new ImageLayer<>(copy, imageDelegate, baseDirectory), true);
+				} else {
+					addLayer(group, new ImageLayer<>(layerElement, options.headless ? null : delegate, baseDirectory));
+				}
+				Util.discardElement(layerElement);
+			} else if (name.equals("tileset") && template != null) {
+				// The template's tilesets are used instead.
+				Util.skipElement(reader);
+			} else if (name.equals("tileset")) {
+				Element tilesetElement = Util.readElement(reader, groupElement);
+				if (group.layers.size() != 0) {
+					throw new FileParsingException(Util.getFullXmlPath(tilesetElement) + ": Found 'tileset' element after layer elements");
+				}
+				if (isRoot && options.executor != null) {
+					Element copy = copyElement(tilesetElement);
+					pendingTilesets.add(CompletableFuture.supplyAsync(() -> new MapFile.TilesetEntry<>(copy, delegate, options, baseDirectory), options.executor));
+				} else if (isRoot) {
+					map.tilesets.add(new MapFile.TilesetEntry<>(tilesetElement, delegate, options, baseDirectory));
+					map.invalidateTileIndex();
+					tilesetLoaded();
+				}
+				Util.discardElement(tilesetElement);
+			} else if (name.equals("editorsettings")) {
+				Util.skipElement(reader);
+			} else {
+				throw new FileParsingException("Unknown element type: '" + name + "'");
+			}
+		}
+
+		if (group == null) {
+			group = isRoot ? new LayerGroup<>(groupElement, true) : new LayerGroup<>(groupElement);
+		}
+		return group;
+	}
+
+	/**
+	 * @return True if <i>options.layerFilter</i> rejects the layer. The layer's properties must
+	 *         already have been read into <i>layerElement</i>.
+	 */
+	private boolean isSkipped(Element layerElement, LayerInfo.Type type, LayerInfo parentInfo) {
+		return options.layerFilter != null && !options.layerFilter.test(new LayerInfo(layerElement, type, parentInfo));
+	}
+
+	private void readTileLayer(LayerGroup<IMG> group, Element parentElement, LayerInfo parentInfo) {
+		Element layerElement = Util.readElementHeader(reader, parentElement);
+		TileLayer<IMG> layer = null;
+		String bufferedData = null;
+		boolean skipped = false;
+		while (Util.nextChildElement(reader)) {
+			String name = reader.getLocalName();
+			if (name.equals("properties")) {
+				Element propertiesTag = Util.readElement(reader, layerElement);
+				if (layer != null) {
+					layer.properties = new TMXProperties(propertiesTag);
+				}
+			} else if (name.equals("data")) {
+				if (layer != null || bufferedData != null || skipped) {
+					throw new RuntimeException(Util.getFullXmlPath(layerElement) + ": Expected only one tag named 'data'");
+				}
+				// The properties come before the data, so the filter can see them.
+				if (isSkipped(layerElement, LayerInfo.Type.TILES, parentInfo)) {
+					skipped = true;
+					Util.skipElement(reader);
+					continue;
+				}
+				Element dataElement = Util.readElementHeader(reader, layerElement);
+				if (map.isInfinite) {
+					// Chunks are only decoded when they're used, so there's nothing to give the pool.
+					layer = new TileLayer<>(layerElement, readChunks(dataElement), map, region);
+				} else if (compiledLayers != null) {
+					layer = new TileLayer<>(layerElement, getCompiledLayer(dataElement), map, region);
+					Util.skipElement(reader);
+				} else {
+					XmlTextReader data = new XmlTextReader(reader);
+					try {
+						if (options.layerPool != null) {
+							// Decoded by the pool once the rest of the layer element has been read.
+							bufferedData = readAll(data);
+						} else {
+							layer = new TileLayer<>(layerElement, dataElement, data, map, region);
+						}
+						data.close();
+					} catch (IOException e) {
+						throw new FileParsingException("Error while reading tile data", e);
+					}
+				}
+				if (layer != null) {
+					storeGids(layer);
+					if (pendingTilesets.isEmpty()) {
+						layer.validateGids();
+					} else {
+						unvalidatedLayers.add(layer);
+					}
+				}
+			} else {
+				Util.skipElement(reader);
+			}
+		}
+
+		if (layer == null && bufferedData == null && !skipped) {
+			throw new RuntimeException(Util.getFullXmlPath(layerElement) + ": Expected 'data' tag");
+		}
+		if (skipped) {
+			// Left out of the map.
+		} else if (bufferedData != null) {
+			String text = bufferedData;
+			Element copy = copyElement(layerElement);
+			// The tilesets can't change once no more are loading, so the gids can be checked in the pool.
+			boolean validate = pendingTilesets.isEmpty();
+			submitLayer(group, () -> {
+				TileLayer<IMG> decoded = new TileLayer<>(copy, Util.getSingleTag(copy, "data", true), new StringReader(text), map, region);
+				storeGids(decoded);
+				if (validate) {
+					decoded.validateGids();
+				}
+				return decoded;
+			}, validate);
+		} else {
+			addLayer(group, layer);
+		}
+		Util.discardElement(layerElement);
+	}
+
+	/**
+	 * Read the chunks of an infinite map's data element, without decoding them. The reader must be
+	 * positioned on the data element's start tag. When this returns, it's on the matching end tag.
+	 */
+	private ArrayList<GidStorage.Chunk> readChunks(Element dataElement) {
+		ArrayList<GidStorage.Chunk> chunks = new ArrayList<>();
+		// The chunks only keep what they need to decode themselves, not the Dom.
+		String xmlPath = Util.getFullXmlPath(dataElement);
+		String encoding = TileLayer.readEncoding(dataElement);
+		String compression = TileLayer.readCompression(dataElement);
+		while (Util.nextChildElement(reader)) {
+			if (!reader.getLocalName().equals("chunk")) {
+				throw new FileParsingException(Util.getFullXmlPath(dataElement) + ": Expected 'chunk' element, found '" + reader.getLocalName() + "'");
+			}
+			Element chunkElement = Util.readElementHeader(reader, dataElement);
+			int x = Util.getIntAttribute(chunkElement, "x");
+			int y = Util.getIntAttribute(chunkElement, "y");
+			int width = TileLayer.readSize(chunkElement, "width");
+			int height = TileLayer.readSize(chunkElement, "height");
+			String text;
+			try (XmlTextReader data = new XmlTextReader(reader)) {
+				text = readAll(data);
+			} catch (IOException e) {
+				throw new FileParsingException("Error while reading tile data", e);
+			}
+			// CSV and base64 are both ASCII, so the text is kept as bytes to halve its size.
+			chunks.add(new GidStorage.Chunk(xmlPath, encoding, compression, text.getBytes(StandardCharsets.US_ASCII), map, x, y, width, height));
+			Util.discardElement(chunkElement);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Get the gids of a tile layer in a compiled map.
+	 */
+	private IntBuffer getCompiledLayer(Element dataElement) {
+		String encoding = Util.getStringAttribute(dataElement, "encoding", "individual");
+		if (!encoding.equals("compiled")) {
+			throw new FileParsingException("Unsupported data encoding in compiled map: '" + encoding + "'");
+		}
+		int index = Util.getIntAttribute(dataElement, "layer");
+		if (index < 0 || index >= compiledLayers.length) {
+			throw new AttributeParsingErrorException(dataElement, "layer", "No such layer in the compiled map", index);
+		}
+		// Each layer gets its own view, so the buffer's position isn't shared.
+		return compiledLayers[index].duplicate();
+	}
+
+	private static String readAll(Reader data) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		char[] buffer = new char[8192];
+		int count;
+		while ((count = data.read(buffer)) != -1) {
+			builder.append(buffer, 0, count);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Choose how a decoded layer stores its gids, as set by <i>options</i>.
+	 */
+	private void storeGids(TileLayer<IMG> layer) {
+		if (options.offHeapTileLayers) {
+			layer.moveGidsOffHeap();
+		} else if (options.compactTileLayers) {
+			layer.compactGids(options.packTileLayers);
+		}
+	}
+
+	/**
+	 * Copy an element into a new Dom document. The Dom isn't thread-safe, so each task given to an
+	 * executor or pool gets its own copy of the elements it reads.
+	 */
+	private static Element copyElement(Element element) {
+		Document document = Util.newDocument();
+		return (Element) document.appendChild(document.importNode(element, true));
+	}
+
+	/**
+	 * Start decoding a layer in <i>options.layerPool</i>. A placeholder is added to the group, and
+	 * replaced by the layer in <i>awaitLayers</i>.
+	 */
+	private void submitLayer(LayerGroup<IMG> group, Supplier<Layer> decoder, boolean validated) {
+		PendingLayer<IMG> pending = new PendingLayer<>();
+		pending.group = group;
+		pending.index = group.layers.size();
+		pending.layer = CompletableFuture.supplyAsync(decoder, options.layerPool);
+		pending.validated = validated;
+		group.layers.add(null);
+		pendingLayers.add(pending);
+	}
+
+	/**
+	 * Wait for the layers being decoded by <i>options.layerPool</i>, and put them in their groups.
+	 * Must be called after <i>awaitTilesets</i>.
+	 */
+	@SuppressWarnings("unchecked")
+	private void awaitLayers() {
+		for (PendingLayer<IMG> pending : pendingLayers) {
+			Layer layer = join(pending.layer);
+			if (!pending.validated) {
+				((TileLayer<IMG>) layer).validateGids();
+			}
+			pending.group.layers.set(pending.index, layer);
+			layerLoaded();
+		}
+		pendingLayers.clear();
+	}
+
+	/**
+	 * Wait for a task, and rethrow its exception as is if it failed.
+	 */
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait for any tilesets being loaded by <i>options.executor</i>, add them to the map, then
+	 * validate the tile layers that were read while they were loading.
+	 */
+	private void awaitTilesets() {
+		if (pendingTilesets.isEmpty()) {
+			return;
+		}
+		for (CompletableFuture<MapFile.TilesetEntry<IMG>> entry : pendingTilesets) {
+			map.tilesets.add(join(entry));
+			tilesetLoaded();
+		}
+		pendingTilesets.clear();
+		map.invalidateTileIndex();
+
+		for (TileLayer<IMG> layer : unvalidatedLayers) {
+			layer.validateGids();
+		}
+		unvalidatedLayers.clear();
+	}
+
+	/**
+	 * @return The layer, or null if <i>options.layerFilter</i> rejected it.
+	 */
+	private ObjectLayer<IMG> readObjectLayer(Element parentElement, LayerInfo parentInfo) {
+		Element layerElement = Util.readElementHeader(reader, parentElement);
+		ObjectLayer<IMG> layer = null;
+		boolean skipped = false;
+		while (Util.nextChildElement(reader)) {
+			String name = reader.getLocalName();
+			if (skipped) {
+				Util.skipElement(reader);
+			} else if (name.equals("properties")) {
+				Element propertiesTag = Util.readElement(reader, layerElement);
+				if (layer != null) {
+					layer.properties = new TMXProperties(propertiesTag);
+				}
+			} else if (name.equals("object")) {
+				if (layer == null) {
+					// The properties come before the objects, so the filter can see them.
+					if (isSkipped(layerElement, LayerInfo.Type.OBJECTS, parentInfo)) {
+						skipped = true;
+						Util.skipElement(reader);
+						continue;
+					}
+					layer = new ObjectLayer<>(layerElement);
+				}
+				checkCancelled();
+				Element objectElement = Util.readElement(reader, layerElement);
+				layer.addObject(objectElement, map);
+				if (region != null && !isInRegion(layer.objects.get(layer.objects.size() - 1))) {
+					layer.objects.remove(layer.objects.size() - 1);
+				}
+				Util.discardElement(objectElement);
+			} else {
+				Util.skipElement(reader);
+			}
+		}
+
+		if (layer == null && !skipped && !isSkipped(layerElement, LayerInfo.Type.OBJECTS, parentInfo)) {
+			layer = new ObjectLayer<>(layerElement);
+		}
+		Util.discardElement(layerElement);
+		return layer;
+	}
+
+	/**
+	 * @return True if the object's bounds touch <i>region</i>. Rotated objects are tested with a
+	 *         box that holds every rotation. Objects can only be placed on the tile grid in
+	 *         orthogonal maps, so every object is kept in other maps.
+	 */
+	private boolean isInRegion(TMXObject object) {
+		if (map.orientation != MapFile.Orientation.ORTHOGONAL) {
+			return true;
+		}
+
+		float left = object.position.x;
+		float top = object.position.y;
+		float right = left + object.size.x;
+		float bottom = top + object.size.y;
+		if (object instanceof TileObject) {
+			// Tile objects are placed by their bottom-left corner.
+			top -= object.size.y;
+			bottom -= object.size.y;
+		} else if (object instanceof ShapeObject && ((ShapeObject) object).points != null) {
+			for (Vector point : ((ShapeObject) object).points) {
+				if (point == null) {
+					// The array can be longer than the number of points.
+					continue;
+				}
+				left = Math.min(left, object.position.x + point.x);
+				top = Math.min(top, object.position.y + point.y);
+				right = Math.max(right, object.position.x + point.x);
+				bottom = Math.max(bottom, object.position.y + point.y);
+			}
+		}
+		if (object.rotation != 0) {
+			// Objects rotate around their position.
+			float dx = Math.max(object.position.x - left, right - object.position.x);
+			float dy = Math.max(object.position.y - top, bottom - object.position.y);
+			float radius = (float) Math.sqrt(dx * dx + dy * dy);
+			left = object.position.x - radius;
+			top = object.position.y - radius;
+			right = object.position.x + radius;
+			bottom = object.position.y + radius;
+		}
+
+		float regionLeft = (float) region.x * map.tileWidth;
+		float regionTop = (float) region.y * map.tileHeight;
+		float regionRight = regionLeft + (float) region.width * map.tileWidth;
+		float regionBottom = regionTop + (float) region.height * map.tileHeight;
+		return left < regionRight && right >= regionLeft && top < regionBottom && bottom >= regionTop;
+	}
+
+	private static class PendingLayer<IMG> {
+		LayerGroup<IMG> group;
+		int index;
+		CompletableFuture<Layer> layer;
+		boolean validated;
+	}
+}
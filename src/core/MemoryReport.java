@@ -0,0 +1,206 @@
+package core;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * The estimated memory used by the gids of each tile layer in a map, compared with what each kind
+ * of storage would use for them.
+ * </p>
+ *
+ * <p>
+ * The kinds of storage are:
+ * </p>
+ *
+ * <ul>
+ * <li>array: an int for every cell.</li>
+ * <li>palette8 and palette16: an 8 or 16 bit index for every cell, into a palette of the gids
+ * the layer uses. Used for layers with at most 256 or 65536 different gids.</li>
+ * <li>blocks: 16x16 blocks, with the empty blocks left out. Used for layers whose tiles are
+ * clustered in a few places.</li>
+ * <li>cells: a hash table of the cells that aren't empty. Used for layers with a few scattered
+ * tiles.</li>
+ * <li>packed: 32x32 chunks, each with its own palette and a 0 to 10 bit index for every cell.
+ * Only used if <i>LoadOptions.packTileLayers</i> is set.</li>
+ * <li>mapped: the gids of a compiled map, read from the memory-mapped file. They take no
+ * heap.</li>
+ * <li>direct: an int for every cell, in direct memory outside the heap. Only used if
+ * <i>LoadOptions.offHeapTileLayers</i> is set.</li>
+ * <li>chunks: the chunks of an infinite map. Chunks that haven't been used yet are still
+ * encoded.</li>
+ * </ul>
+ *
+ * <p>
+ * See <i>LoadOptions.compactTileLayers</i> for how the storage of each layer is chosen. Sizes are
+ * estimates for a 64 bit JVM with compressed references. They don't include the Tile objects,
+ * which are shared by every layer, or the <i>TileLayer.tiles</i> array.
+ * </p>
+ *
+ * <p>
+ * Building a report reads every cell of every tile layer, so it decodes every chunk of an
+ * infinite map.
+ * </p>
+ */
+public class MemoryReport {
+	/**
+	 * Every tile layer in the map, in the order they appear in the file. Cannot be null.
+	 */
+	public ArrayList<LayerEntry> layers;
+	/**
+	 * The total of each layer's <i>bytes</i>.
+	 */
+	public long totalBytes;
+	/**
+	 * The total of each layer's <i>arrayBytes</i>: the memory the gids would take if every layer
+	 * was stored as an array.
+	 */
+	public long totalArrayBytes;
+	/**
+	 * The total of each layer's <i>offHeapBytes</i>.
+	 */
+	public long totalOffHeapBytes;
+
+	/**
+	 * Measure the tile layers of a map.
+	 *
+	 * @param map
+	 *            The map to measure. Cannot be null.
+	 */
+	public MemoryReport(MapFile<?> map) {
+		layers = new ArrayList<>();
+		addLayers(map.root, "");
+	}
+
+	/**
+	 * Manually create a MemoryReport instance. No fields are initialized.
+	 */
+	public MemoryReport() {}
+
+	private void addLayers(LayerGroup<?> group, String path) {
+		for (Layer layer : group.layers) {
+			if (layer instanceof LayerGroup) {
+				addLayers((LayerGroup<?>) layer, path + layer.name + "/");
+			} else if (layer instanceof TileLayer) {
+				LayerEntry entry = new LayerEntry((TileLayer<?>) layer, path + layer.name);
+				layers.add(entry);
+				totalBytes += entry.bytes;
+				totalArrayBytes += entry.arrayBytes;
+				totalOffHeapBytes += entry.offHeapBytes;
+			}
+		}
+	}
+
+	/**
+	 * @return A table with a line for each layer, and a line with the totals.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%-32s %11s %8s %7s %-9s %12s %12s %12s %12s %12s %12s %12s%n", "layer", "size", "fill", "gids", "storage", "bytes", "array", "palette", "blocks", "cells", "packed", "off-heap"));
+		for (LayerEntry entry : layers) {
+			builder.append(entry).append(System.lineSeparator());
+		}
+		builder.append(String.format("%-32s %11s %8s %7s %-9s %12d %12d %12s %12s %12s %12s %12d%n", "total", "", "", "", "", totalBytes, totalArrayBytes, "", "", "", "", totalOffHeapBytes));
+		return builder.toString();
+	}
+
+	/**
+	 * The storage of a single tile layer.
+	 */
+	public static class LayerEntry {
+		/**
+		 * The names of the layer's groups and of the layer, separated by '/'.
+		 */
+		public String path;
+		/**
+		 * The width of the layer, in tiles.
+		 */
+		public int width;
+		/**
+		 * The height of the layer, in tiles.
+		 */
+		public int height;
+		/**
+		 * The number of cells that aren't empty.
+		 */
+		public long usedCells;
+		/**
+		 * The number of different gids in the layer, counting each combination of flipping flags
+		 * as a different gid, and counting empty cells as gid 0. Counting stops past 65536.
+		 */
+		public int distinctGids;
+		/**
+		 * The kind of storage the layer uses: "array", "palette8", "palette16", "blocks", "cells",
+		 * "packed", "mapped", "direct", or "chunks".
+		 */
+		public String storage;
+		/**
+		 * The bytes of heap the layer's storage takes.
+		 */
+		public long bytes;
+		/**
+		 * The bytes the layer would take as an array.
+		 */
+		public long arrayBytes;
+		/**
+		 * The bytes the layer would take as 8 or 16 bit palette indexes, or <i>arrayBytes</i> if it
+		 * uses more than 65536 different gids.
+		 */
+		public long paletteBytes;
+		/**
+		 * The bytes the layer would take as 16x16 blocks.
+		 */
+		public long blockBytes;
+		/**
+		 * The bytes the layer would take as a hash table of cells.
+		 */
+		public long cellBytes;
+		/**
+		 * The bytes the layer would take as packed chunks.
+		 */
+		public long packedBytes;
+		/**
+		 * The bytes the layer's storage takes outside the heap, in direct memory or in a
+		 * memory-mapped file.
+		 */
+		public long offHeapBytes;
+
+		LayerEntry(TileLayer<?> layer, String path) {
+			this.path = path;
+			width = layer.width;
+			height = layer.height;
+			GidStorage gids = layer.getGidStorage();
+			GidStorage.Estimate estimate = new GidStorage.Estimate(gids, width, height, true);
+			usedCells = estimate.usedCells;
+			distinctGids = estimate.palette.size;
+			storage = gids.getKind();
+			// Measured after the estimate, which decodes every chunk.
+			bytes = gids.estimatedBytes();
+			arrayBytes = estimate.getArrayBytes();
+			paletteBytes = estimate.getPaletteBytes();
+			blockBytes = estimate.getBlockBytes();
+			cellBytes = estimate.getCellBytes();
+			packedBytes = estimate.packedBytes;
+			offHeapBytes = gids.offHeapBytes();
+		}
+
+		/**
+		 * Manually create a LayerEntry instance. No fields are initialized.
+		 */
+		public LayerEntry() {}
+
+		/**
+		 * @return The fraction of cells that aren't empty, between 0 and 1.
+		 */
+		public double getFillRatio() {
+			long cells = (long) width * height;
+			return cells == 0 ? 0 : (double) usedCells / cells;
+		}
+
+		@Override
+		public String toString() {
+			String gids = distinctGids > GidStorage.SHORT_PALETTE_SIZE ? ">65536" : Integer.toString(distinctGids);
+			return String.format("%-32s %11s %7.2f%% %7s %-9s %12d %12d %12d %12d %12d %12d %12d", path, width + "x" + height, 100 * getFillRatio(), gids, storage, bytes, arrayBytes, paletteBytes, blockBytes, cellBytes, packedBytes, offHeapBytes);
+		}
+	}
+}
@@ -18,7 +18,11 @@ public class ObjectLayer<IMG> extends Layer {
 	 */
 	public ArrayList<TMXObject> objects;
 
-	ObjectLayer(Element element, MapFile<IMG> parent) {
+	/**
+	 * Read the layer's attributes and properties. The objects are added by MapReader, using
+	 * <i>addObject</i>, as they are streamed in.
+	 */
+	ObjectLayer(Element element) {
 		super(element);
 		String drawOrder = Util.getStringAttribute(element, "draworder", "index");
 		if (!drawOrder.equals("index")) {
@@ -26,14 +30,15 @@ public class ObjectLayer<IMG> extends Layer {
 		}
 
 		objects = new ArrayList<>();
-		for (Element objectData : Util.getAllTags(element, "object")) {
-			if (objectData.hasAttribute("gid")) {
-				objects.add(new TileObject<>(objectData, parent));
-			} else if (Util.hasChildNode(objectData, "text")) {
-				objects.add(new TextObject(objectData));
-			} else {
-				objects.add(new ShapeObject(objectData));
-			}
+	}
+
+	void addObject(Element objectData, MapFile<IMG> parent) {
+		if (objectData.hasAttribute("gid")) {
+			objects.add(new TileObject<>(objectData, parent));
+		} else if (Util.hasChildNode(objectData, "text")) {
+			objects.add(new TextObject(objectData));
+		} else {
+			objects.add(new ShapeObject(objectData));
 		}
 	}
 
@@ -0,0 +1,133 @@
+package core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import privateUtil.ByteBufferInputStream;
+import privateUtil.Util;
+import util.FileParsingException;
+import util.LoadOptions;
+import util.Rect;
+import util.ResourceLoaderDelegate;
+
+/**
+ * <p>
+ * Loads rectangular regions of a large map, for when only the area around the camera or player
+ * is needed.
+ * </p>
+ *
+ * <p>
+ * Each call to <i>load</i> returns a new MapFile. Its tile layers only hold the cells in the
+ * region; see <i>TileLayer.originX</i> and <i>TileLayer.originY</i>. Its object layers only hold
+ * the objects that touch the region. Image layers are loaded as usual, and the map's
+ * <i>mapWidth</i> and <i>mapHeight</i> are still the size of the whole map.
+ * </p>
+ *
+ * <p>
+ * The map header and tilesets are read by the first load, then shared by every map loaded after
+ * it, so loading the next region only reads the layers. The tile data in a TMX file still has to
+ * be scanned up to the last row of the region, although only the cells in the region are kept.
+ * Loading regions from a compiled map (see <i>MapFile.compile</i>) avoids that, since the cells are
+ * copied straight from the file.
+ * </p>
+ *
+ * <p>
+ * Regions may be loaded on several threads at once.
+ * </p>
+ *
+ * @param <IMG>
+ *            The image type that <i>fileDelegate</i> returns.
+ */
+public class RegionLoader<IMG> {
+	private final String filename;
+	private final CompiledMap compiled;
+	private final ResourceLoaderDelegate<IMG> fileDelegate;
+	private final LoadOptions options;
+	/**
+	 * Holds the header and tilesets read by the first load. It has no layers.
+	 */
+	private volatile MapFile<IMG> template;
+
+	/**
+	 * Load regions of a map file.
+	 *
+	 * @param filename
+	 *            The map file. The file is opened using <i>fileDelegate</i> for each load.
+	 * @param fileDelegate
+	 *            An object used when opening files, loading images, and slicing images into tile
+	 *            images. Cannot be null.
+	 * @param options
+	 *            Options that control how the map is loaded. Cannot be null.
+	 */
+	public RegionLoader(String filename, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options) {
+		this.filename = filename;
+		this.compiled = null;
+		this.fileDelegate = fileDelegate;
+		this.options = options;
+	}
+
+	/**
+	 * Load regions of a compiled map. The file is memory-mapped once, and kept mapped until this
+	 * loader and every map loaded from it are garbage collected.
+	 *
+	 * @param compiledMap
+	 *            The compiled map. See <i>MapFile.loadCompiled</i>.
+	 * @param fileDelegate
+	 *            An object used when opening files, loading images, and slicing images into tile
+	 *            images. Cannot be null.
+	 * @param options
+	 *            Options that control how the map is loaded. Cannot be null.
+	 * @throws FileParsingException
+	 *             If the file can't be read, or isn't a compiled map.
+	 */
+	public RegionLoader(Path compiledMap, ResourceLoaderDelegate<IMG> fileDelegate, LoadOptions options) {
+		this.filename = null;
+		this.compiled = CompiledMap.open(compiledMap);
+		this.fileDelegate = fileDelegate;
+		this.options = options;
+	}
+
+	/**
+	 * Load a region of the map.
+	 *
+	 * @param region
+	 *            The cells to load, in map coordinates. Parts of the region outside the map are
+	 *            left out.
+	 * @return A map holding only the region.
+	 */
+	public MapFile<IMG> load(Rect region) {
+		MapFile<IMG> map = new MapFile<>();
+		if (compiled != null) {
+			// Paths in a compiled map are already resolved.
+			MapReader<IMG> reader = newReader(map, region, "");
+			reader.compiledLayers = compiled.layers;
+			reader.read(new ByteBufferInputStream(compiled.skeleton.duplicate()));
+		} else {
+			InputStream file = fileDelegate.openFile(filename, "");
+			try {
+				newReader(map, region, Util.getDirectory(Util.resolvePath("", filename))).read(file);
+			} finally {
+				try {
+					file.close();
+				} catch (IOException e) {
+					System.out.println("RegionLoader: Error while closing file stream: '" + filename + "'");
+				}
+			}
+		}
+
+		if (template == null) {
+			// Two threads may both get here first. Either template will do.
+			MapFile<IMG> header = new MapFile<>();
+			header.copyHeader(map);
+			template = header;
+		}
+		return map;
+	}
+
+	private MapReader<IMG> newReader(MapFile<IMG> map, Rect region, String baseDirectory) {
+		MapReader<IMG> reader = new MapReader<>(map, fileDelegate, options, baseDirectory, null, null);
+		reader.region = region;
+		reader.template = template;
+		return reader;
+	}
+}
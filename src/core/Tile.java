@@ -22,10 +22,17 @@ public class Tile<IMG> {
 	 */
 	public final Rect pixelRect;
 	/**
+	 * <p>
 	 * The image computed by ImageDelegate, or null if no delegate is provided.
 	 * See MapFile for more info.
+	 * </p>
+	 * 
+	 * <p>
+	 * If the map was loaded with <i>LoadOptions.lazyTileImages</i>, this is null until the image is
+	 * sliced by <i>getImage</i>. Use <i>getImage</i> instead of reading this field directly.
+	 * </p>
 	 */
-	public IMG image;
+	public volatile IMG image;
 	/**
 	 * An arbitrary string. Cannot be null.
 	 */
@@ -73,6 +80,25 @@ public class Tile<IMG> {
 		this.properties = properties;
 	}
 
+	/**
+	 * <p>
+	 * Returns the image of this tile, slicing it from the tileset image first if needed.
+	 * </p>
+	 * 
+	 * <p>
+	 * This is safe to call from any thread. Each tile's image is only sliced once.
+	 * </p>
+	 * 
+	 * @return The image, or null if no delegate is provided.
+	 */
+	public IMG getImage() {
+		IMG ret = image;
+		if (ret == null) {
+			ret = parent.sliceTileImage(this);
+		}
+		return ret;
+	}
+
 	/**
 	 * <p>
 	 * Returns the global ID of this tile within its parent file.
@@ -83,16 +109,15 @@ public class Tile<IMG> {
 	 * the correct parent file as a parameter.
 	 * </p>
 	 * 
+	 * <p>
+	 * To convert many tiles at once, use <i>MapFile.getGids</i>.
+	 * </p>
+	 * 
 	 * @param parentFile
 	 *            A map instance that uses this tile's tileset.
 	 * @return The global ID of the tile within that map.
 	 */
 	public int getGid(MapFile<IMG> parentFile) {
-		for (MapFile.TilesetEntry<IMG> tilesetEntry : parentFile.tilesets) {
-			if (tilesetEntry.tiles == parent) {
-				return localId + tilesetEntry.firstGid;
-			}
-		}
-		throw new RuntimeException("Can't find parent tileset in the given MapFile.");
+		return parentFile.getFirstGid(parent) + localId;
 	}
 }
@@ -1,75 +1,448 @@
 package core;
 
+import java.io.Reader;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import org.w3c.dom.Element;
+import privateUtil.TileData;
 import privateUtil.Util;
 import util.AttributeParsingErrorException;
 import util.FileParsingException;
+import util.Rect;
 
 /**
+ * <p>
  * A layer of tiles.
- * 
+ * </p>
+ *
+ * <p>
+ * Tiles are stored as a flat, row-major array of gids. Use <i>getGid</i> and <i>getTile</i> to
+ * read single cells, or <i>copyGids</i> to copy a whole region at once.
+ * </p>
+ *
+ * <p>
+ * Layers that use few different gids may store a small index into a palette of gids for each
+ * cell instead, and layers that are mostly empty may be stored sparsely or in packed chunks; see
+ * <i>LoadOptions.compactTileLayers</i>, <i>LoadOptions.packTileLayers</i>, and
+ * <i>MemoryReport</i>. This doesn't change how the layer is used.
+ * </p>
+ *
+ * <p>
+ * With <i>LoadOptions.offHeapTileLayers</i>, the gids are kept in direct memory outside the heap
+ * instead. Call <i>close</i>, or <i>MapFile.close</i>, to free it as soon as the layer isn't
+ * needed.
+ * </p>
+ *
+ * <p>
+ * A layer loaded by <i>RegionLoader</i> only holds a window of the layer in the file. Its cells
+ * are still numbered from (0, 0); <i>originX</i> and <i>originY</i> give the map cell that (0, 0)
+ * refers to. Use <i>getMapGid</i> to read cells by their map coordinates instead.
+ * </p>
+ *
+ * <p>
+ * A layer of an infinite map covers the bounding box of its chunks, and its origin is the
+ * top-left corner of that box, which may be negative. Each chunk is only decoded when one of its
+ * cells is first used, and cells that aren't in any chunk are empty.
+ * </p>
+ *
  * @param <IMG>
  *            The IMG param of the parent MapFile. See MapFile for more info.
  */
 public class TileLayer<IMG> extends Layer {
-	private static final long FLIPPED_HORIZ_FLAG = 0x80000000;
-	private static final long FLIPPED_VERT_FLAG = 0x40000000;
-	private static final long FLIPPED_DIAG_FLAG = 0x20000000;
-	private static final long GID_MASK = ~(FLIPPED_HORIZ_FLAG | FLIPPED_VERT_FLAG | FLIPPED_DIAG_FLAG);
+	/**
+	 * Set in a gid if the tile is flipped horizontally.
+	 */
+	public static final int FLIPPED_HORIZ_FLAG = 0x80000000;
+	/**
+	 * Set in a gid if the tile is flipped vertically.
+	 */
+	public static final int FLIPPED_VERT_FLAG = 0x40000000;
+	/**
+	 * <p>
+	 * Set in a gid if the tile is flipped diagonally (top-left to bottom-right).
+	 * </p>
+	 * 
+	 * <p>
+	 * Tiled uses this to rotate tiles. A diagonal flip followed by a horizontal flip is a
+	 * 90 degree clockwise rotation.
+	 * </p>
+	 */
+	public static final int FLIPPED_DIAG_FLAG = 0x20000000;
+	/**
+	 * Mask to remove the tile flipping flags from a gid returned by <i>getGid</i> or
+	 * <i>copyGids</i>.
+	 */
+	public static final int GID_MASK = ~(FLIPPED_HORIZ_FLAG | FLIPPED_VERT_FLAG | FLIPPED_DIAG_FLAG);
 
 	/**
-	 * The tiles in this layer. Tiles are stored in <i>tile[x][y]</i> format. Cannot be null.
+	 * <p>
+	 * The tiles in this layer. Tiles are stored in <i>tile[x][y]</i> format.
+	 * </p>
+	 *
+	 * <p>
+	 * This is only a view of the gids in this layer, and it is null until <i>getTiles</i> is called.
+	 * It doesn't include the tile flipping flags.
+	 * </p>
+	 *
+	 * @deprecated Use <i>getTile</i>, <i>getGid</i>, or <i>copyGids</i> instead. This array takes
+	 *             far more memory than the gids it's built from.
 	 */
+	@Deprecated
 	public Tile<IMG>[][] tiles;
 	/**
-	 * The width of the <i>tiles</i> field. Must match <i>tiles.length</i>.
+	 * The width of the layer, in tiles.
 	 */
 	public int width;
 	/**
-	 * The height of the <i>tiles</i> field. Must match <i>tiles[_].length</i>.
+	 * The height of the layer, in tiles.
 	 */
 	public int height;
+	/**
+	 * The column of the map that this layer's column 0 refers to. 0 unless only a region of the
+	 * layer was loaded.
+	 */
+	public int originX;
+	/**
+	 * The row of the map that this layer's row 0 refers to. 0 unless only a region of the layer
+	 * was loaded.
+	 */
+	public int originY;
+	/**
+	 * The map this layer belongs to. Used to look up the tiles for each gid.
+	 */
+	public MapFile<IMG> parent;
 
-	@SuppressWarnings("unchecked")
-	TileLayer(Element element, MapFile<IMG> parent) {
+	/**
+	 * The gid of each cell, in row-major order, including the tile flipping flags.
+	 */
+	private GidStorage gids;
+
+	/**
+	 * @param element
+	 *            The layer element. Only its attributes and properties are used.
+	 * @param dataElement
+	 *            The data element. Only its attributes are used.
+	 * @param data
+	 *            The text content of the data element.
+	 * @param parent
+	 *            The map being loaded. Its tilesets don't need to be loaded yet, but
+	 *            <i>validateGids</i> must be called once they are.
+	 */
+	TileLayer(Element element, Element dataElement, Reader data, MapFile<IMG> parent) {
+		this(element, dataElement, data, parent, null);
+	}
+
+	/**
+	 * Read a window of a layer.
+	 * 
+	 * @param region
+	 *            The cells to load, or null to load the whole layer. Cells outside the layer are
+	 *            left out.
+	 */
+	TileLayer(Element element, Element dataElement, Reader data, MapFile<IMG> parent, Rect region) {
 		super(element);
+		this.parent = parent;
+		int layerWidth = readSize(element, "width");
+		int layerHeight = readSize(element, "height");
+		Rect window = clip(region, layerWidth, layerHeight);
+		setWindow(window);
+		gids = new GidStorage.Array(decode(dataElement, data, layerWidth, layerHeight, window));
+	}
+
+	/**
+	 * Decode the contents of a data element.
+	 * 
+	 * @return The gids, in row-major order.
+	 */
+	static int[] decode(Element dataElement, Reader data, int width, int height) {
+		return decode(dataElement, data, width, height, new Rect(0, 0, width, height));
+	}
+
+	/**
+	 * Decode the cells in a window of a data element.
+	 * 
+	 * @param window
+	 *            The cells to decode. Must be inside the layer.
+	 * @return The gids in the window, in row-major order.
+	 * @throws FileParsingException
+	 *             If the window has more cells than fit in an array.
+	 */
+	static int[] decode(Element dataElement, Reader data, int width, int height, Rect window) {
+		return decode(Util.getFullXmlPath(dataElement), readEncoding(dataElement), readCompression(dataElement), data, width, height, window);
+	}
 
-		width = Util.getIntAttribute(element, "width");
-		if (width < 0) {
-			throw new AttributeParsingErrorException(element, "width", "Value cannot be negative", width);
+	/**
+	 * Decode the cells in a window of tile data, given the attributes of its data element. Used
+	 * once the data element is gone, such as for the chunks of an infinite map.
+	 * 
+	 * @param xmlPath
+	 *            The path of the data element, for error messages. See <i>Util.getFullXmlPath</i>.
+	 * @param encoding
+	 *            The data element's encoding, from <i>readEncoding</i>.
+	 * @param compression
+	 *            The data element's compression, from <i>readCompression</i>.
+	 * @return The gids in the window, in row-major order.
+	 * @throws FileParsingException
+	 *             If the data is malformed, or the window has more cells than fit in an array.
+	 */
+	static int[] decode(String xmlPath, String encoding, String compression, Reader data, int width, int height, Rect window) {
+		if ((long) window.width * window.height > Integer.MAX_VALUE) {
+			throw new FileParsingException(xmlPath + ": Layer is too large to load; " + window.width + "x" + window.height + " tiles");
 		}
+		int[] gids = new int[window.width * window.height];
+		if (encoding.equals("csv")) {
+			TileData.decodeCsv(xmlPath, data, width, height, window, gids);
+		} else if (encoding.equals("base64")) {
+			TileData.decodeBase64(xmlPath, data, compression, width, height, window, gids);
+		} else {
+			throw new FileParsingException("Unsupported data encoding: '" + encoding + "'");
+		}
+		return gids;
+	}
 
-		height = Util.getIntAttribute(element, "height");
-		if (height < 0) {
-			throw new AttributeParsingErrorException(element, "height", "Value cannot be negative", height);
+	/**
+	 * @return The encoding attribute of a data element.
+	 */
+	static String readEncoding(Element dataElement) {
+		return Util.getStringAttribute(dataElement, "encoding", "individual");
+	}
+
+	/**
+	 * @return The compression attribute of a data element, or null if the data isn't compressed.
+	 * @throws AttributeParsingErrorException
+	 *             If the compression isn't supported.
+	 */
+	static String readCompression(Element dataElement) {
+		String compression = Util.getStringAttribute(dataElement, "compression", null);
+		if (compression != null && !compression.equals("zlib") && !compression.equals("gzip")) {
+			throw new AttributeParsingErrorException(dataElement, "compression", "Unsupported compression; expected zlib or gzip", compression);
 		}
+		return compression;
+	}
 
-		Element dataElement = Util.getSingleTag(element, "data", true);
+	/**
+	 * Create a layer from gids that are already decoded, such as the gids in a compiled map.
+	 * 
+	 * @param element
+	 *            The layer element. Only its attributes and properties are used.
+	 * @param gids
+	 *            The gids, in row-major order. They are used as is, not copied, and are never
+	 *            changed.
+	 * @param parent
+	 *            The map being loaded. <i>validateGids</i> must be called once its tilesets are
+	 *            loaded.
+	 */
+	TileLayer(Element element, IntBuffer gids, MapFile<IMG> parent) {
+		this(element, gids, parent, null);
+	}
 
-		String encoding = Util.getStringAttribute(dataElement, "encoding", "individual");
-		if (!encoding.equals("csv")) {
-			throw new FileParsingException("Unsupported data encoding: '" + encoding + "'");
+	/**
+	 * Create a layer from a window of gids that are already decoded. The gids in the window are
+	 * copied.
+	 * 
+	 * @param region
+	 *            The cells to load, or null to use the whole buffer without copying it. Cells
+	 *            outside the layer are left out.
+	 */
+	TileLayer(Element element, IntBuffer gids, MapFile<IMG> parent, Rect region) {
+		super(element);
+		this.parent = parent;
+		int layerWidth = readSize(element, "width");
+		int layerHeight = readSize(element, "height");
+
+		if (gids.limit() != (long) layerWidth * layerHeight) {
+			throw new FileParsingException(Util.getFullXmlPath(element) + ": Expected " + (long) layerWidth * layerHeight + " gids, found " + gids.limit());
+		}
+		if (region == null) {
+			width = layerWidth;
+			height = layerHeight;
+			this.gids = new GidStorage.Buffer(gids);
+			return;
 		}
 
-		String csv = dataElement.getTextContent();
-		String[] gidStrings = csv.split(",");
-		tiles = new Tile[width][height];
-		for (int col = 0; col < width; col++) {
-			for (int row = 0; row < height; row++) {
-				long gid = Long.parseLong(gidStrings[col + row * width].trim());
+		Rect window = clip(region, layerWidth, layerHeight);
+		setWindow(window);
+		int[] array = new int[window.width * window.height];
+		IntBuffer view = gids.duplicate();
+		for (int row = 0; row < window.height; row++) {
+			view.position((window.y + row) * layerWidth + window.x);
+			view.get(array, row * window.width, window.width);
+		}
+		this.gids = new GidStorage.Array(array);
+	}
 
-				// Check for tile flipping.
-				boolean flippedHoriz = (gid & 0x80000000) != 0;
-				boolean flippedVert = (gid & 0x40000000) != 0;
-				boolean flippedDiag = (gid & 0x20000000) != 0;
-				gid &= GID_MASK;
+	/**
+	 * <p>
+	 * Create a layer of an infinite map from its chunks.
+	 * </p>
+	 * 
+	 * <p>
+	 * The chunks are kept encoded, and decoded when they are first used. Their gids are checked
+	 * then, so <i>validateGids</i> skips them. If the chunks aren't all the same
+	 * size and aligned to the same grid, which Tiled never does, they are all decoded into a single
+	 * array instead.
+	 * </p>
+	 * 
+	 * @param element
+	 *            The layer element. Only its attributes and properties are used.
+	 * @param chunks
+	 *            The chunks in the layer's data element.
+	 * @param parent
+	 *            The map being loaded.
+	 * @param region
+	 *            The cells to load, or null to load the whole layer. Chunks that don't touch the
+	 *            region are left out; the others are kept whole.
+	 */
+	TileLayer(Element element, List<GidStorage.Chunk> chunks, MapFile<IMG> parent, Rect region) {
+		super(element);
+		this.parent = parent;
 
-				if (flippedHoriz || flippedVert || flippedDiag) {
-					throw new FileParsingException("Tile flipping and rotating not supported yet!");
-				}
+		ArrayList<GidStorage.Chunk> kept = new ArrayList<>(chunks.size());
+		for (GidStorage.Chunk chunk : chunks) {
+			if (region == null || (chunk.x < region.x + region.width && chunk.x + chunk.width > region.x && chunk.y < region.y + region.height && chunk.y + chunk.height > region.y)) {
+				kept.add(chunk);
+			}
+		}
+		if (kept.isEmpty()) {
+			gids = new GidStorage.Array(new int[0]);
+			return;
+		}
+
+		int chunkWidth = kept.get(0).width;
+		int chunkHeight = kept.get(0).height;
+		int left = Integer.MAX_VALUE;
+		int top = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		for (GidStorage.Chunk chunk : kept) {
+			left = Math.min(left, chunk.x);
+			top = Math.min(top, chunk.y);
+			right = Math.max(right, chunk.x + chunk.width);
+			bottom = Math.max(bottom, chunk.y + chunk.height);
+		}
+		boolean isGrid = chunkWidth > 0 && chunkHeight > 0;
+		for (GidStorage.Chunk chunk : kept) {
+			if (chunk.width != chunkWidth || chunk.height != chunkHeight || (chunk.x - left) % Math.max(1, chunkWidth) != 0 || (chunk.y - top) % Math.max(1, chunkHeight) != 0) {
+				isGrid = false;
+			}
+		}
+		setWindow(new Rect(left, top, right - left, bottom - top));
 
-				tiles[col][row] = parent.getTile((int) gid);
+		if (isGrid) {
+			GidStorage.Chunked storage = new GidStorage.Chunked(width, height, chunkWidth, chunkHeight);
+			for (GidStorage.Chunk chunk : kept) {
+				storage.setChunk(chunk.x - left, chunk.y - top, chunk);
+			}
+			gids = storage;
+		} else {
+			// Checked by validateGids, since the tilesets may not be loaded yet.
+			int[] array = new int[width * height];
+			for (GidStorage.Chunk chunk : kept) {
+				int[] decoded = chunk.decode(false);
+				for (int row = 0; row < chunk.height; row++) {
+					System.arraycopy(decoded, row * chunk.width, array, (chunk.y - top + row) * width + chunk.x - left, chunk.width);
+				}
 			}
+			gids = new GidStorage.Array(array);
+		}
+	}
+
+	/**
+	 * @return The part of <i>region</i> inside a layer of the given size, or the whole layer if
+	 *         <i>region</i> is null.
+	 */
+	private static Rect clip(Rect region, int layerWidth, int layerHeight) {
+		if (region == null) {
+			return new Rect(0, 0, layerWidth, layerHeight);
+		}
+		int left = Math.max(0, Math.min(layerWidth, region.x));
+		int top = Math.max(0, Math.min(layerHeight, region.y));
+		int right = (int) Math.max(left, Math.min(layerWidth, (long) region.x + region.width));
+		int bottom = (int) Math.max(top, Math.min(layerHeight, (long) region.y + region.height));
+		return new Rect(left, top, right - left, bottom - top);
+	}
+
+	private void setWindow(Rect window) {
+		originX = window.x;
+		originY = window.y;
+		width = window.width;
+		height = window.height;
+	}
+
+	/**
+	 * Read the width or height attribute of a layer element.
+	 */
+	static int readSize(Element element, String name) {
+		int size = Util.getIntAttribute(element, name);
+		if (size < 0) {
+			throw new AttributeParsingErrorException(element, name, "Value cannot be negative", size);
+		}
+		return size;
+	}
+
+	/**
+	 * Check that every gid in this layer belongs to one of the parent map's tilesets. Called by
+	 * MapReader once the map's tilesets are loaded.
+	 */
+	void validateGids() {
+		gids.validate(parent, width * height);
+	}
+
+	/**
+	 * Store the gids in whichever way takes the least memory. Only layers whose gids are in an
+	 * array are changed.
+	 *
+	 * @param pack
+	 *            If true, the gids may be stored in packed chunks.
+	 */
+	void compactGids(boolean pack) {
+		if (gids instanceof GidStorage.Array) {
+			gids = GidStorage.compact(((GidStorage.Array) gids).getArray(), width, height, pack);
+		}
+	}
+
+	/**
+	 * Move the gids into direct memory. Layers of compiled maps are already outside the heap, and
+	 * are only copied into direct memory when they're first changed. Chunked layers of infinite
+	 * maps are not changed.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the layer has more cells than fit in direct storage.
+	 */
+	void moveGidsOffHeap() {
+		if (gids instanceof GidStorage.Array) {
+			gids = GidStorage.Direct.of(gids, width * height);
+		} else if (gids instanceof GidStorage.Buffer) {
+			gids = ((GidStorage.Buffer) gids).copyingOffHeap();
+		}
+	}
+
+	GidStorage getGidStorage() {
+		return gids;
+	}
+
+	/**
+	 * <p>
+	 * Free the memory holding this layer's gids. If they're in direct memory (see
+	 * <i>LoadOptions.offHeapTileLayers</i>), it's freed now instead of when the layer is garbage
+	 * collected.
+	 * </p>
+	 * 
+	 * <p>
+	 * The layer is empty afterwards: its width and height are 0, so reading or changing a cell
+	 * throws an IndexOutOfBoundsException. Clones made before are not affected, and have to be
+	 * closed separately. The layer must not be in use by another thread while it's being closed.
+	 * </p>
+	 */
+	public void close() {
+		GidStorage closed = gids;
+		gids = new GidStorage.Array(new int[0]);
+		width = 0;
+		height = 0;
+		tiles = null;
+		if (closed != null) {
+			closed.close();
 		}
 	}
 
@@ -78,14 +451,212 @@ public class TileLayer<IMG> extends Layer {
 	 */
 	public TileLayer() {}
 
+	/**
+	 * Get the gid of a single cell.
+	 *
+	 * @param x
+	 *            The column of the cell.
+	 * @param y
+	 *            The row of the cell.
+	 * @return The gid, including the tile flipping flags. 0 means an empty cell.
+	 * @throws IndexOutOfBoundsException
+	 *             If the cell is outside the layer.
+	 */
+	public int getGid(int x, int y) {
+		checkBounds(x, y);
+		return gids.get(y * width + x);
+	}
+
+	/**
+	 * Get the gid of a single cell, by its position in the map rather than in this layer. The
+	 * position is offset by <i>originX</i> and <i>originY</i>.
+	 *
+	 * @param mapX
+	 *            The column of the cell in the map.
+	 * @param mapY
+	 *            The row of the cell in the map.
+	 * @return The gid, including the tile flipping flags. 0 if the cell is empty, or outside this
+	 *         layer.
+	 */
+	public int getMapGid(int mapX, int mapY) {
+		long x = (long) mapX - originX;
+		long y = (long) mapY - originY;
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return 0;
+		}
+		return gids.get((int) y * width + (int) x);
+	}
+
+	/**
+	 * Get the tile in a single cell.
+	 *
+	 * @param x
+	 *            The column of the cell.
+	 * @param y
+	 *            The row of the cell.
+	 * @return The tile, or null if the cell is empty.
+	 * @throws IndexOutOfBoundsException
+	 *             If the cell is outside the layer.
+	 */
+	public Tile<IMG> getTile(int x, int y) {
+		return parent.getTile(getGid(x, y) & GID_MASK);
+	}
+
+	/**
+	 * Get the tile flipping flags of a single cell.
+	 *
+	 * @param x
+	 *            The column of the cell.
+	 * @param y
+	 *            The row of the cell.
+	 * @return Some combination of <i>FLIPPED_HORIZ_FLAG</i>, <i>FLIPPED_VERT_FLAG</i>, and
+	 *         <i>FLIPPED_DIAG_FLAG</i>, or 0 if the tile isn't flipped.
+	 * @throws IndexOutOfBoundsException
+	 *             If the cell is outside the layer.
+	 */
+	public int getFlipFlags(int x, int y) {
+		return getGid(x, y) & ~GID_MASK;
+	}
+
+	/**
+	 * @param x
+	 *            The column of the cell.
+	 * @param y
+	 *            The row of the cell.
+	 * @return True if the tile in the cell is flipped horizontally.
+	 * @throws IndexOutOfBoundsException
+	 *             If the cell is outside the layer.
+	 */
+	public boolean isFlippedHorizontally(int x, int y) {
+		return (getGid(x, y) & FLIPPED_HORIZ_FLAG) != 0;
+	}
+
+	/**
+	 * @param x
+	 *            The column of the cell.
+	 * @param y
+	 *            The row of the cell.
+	 * @return True if the tile in the cell is flipped vertically.
+	 * @throws IndexOutOfBoundsException
+	 *             If the cell is outside the layer.
+	 */
+	public boolean isFlippedVertically(int x, int y) {
+		return (getGid(x, y) & FLIPPED_VERT_FLAG) != 0;
+	}
+
+	/**
+	 * @param x
+	 *            The column of the cell.
+	 * @param y
+	 *            The row of the cell.
+	 * @return True if the tile in the cell is flipped diagonally. See <i>FLIPPED_DIAG_FLAG</i>.
+	 * @throws IndexOutOfBoundsException
+	 *             If the cell is outside the layer.
+	 */
+	public boolean isFlippedDiagonally(int x, int y) {
+		return (getGid(x, y) & FLIPPED_DIAG_FLAG) != 0;
+	}
+
+	/**
+	 * Set the gid of a single cell.
+	 *
+	 * @param x
+	 *            The column of the cell.
+	 * @param y
+	 *            The row of the cell.
+	 * @param gid
+	 *            The new gid, in the parent map, including any tile flipping flags. 0 means an
+	 *            empty cell.
+	 * @throws IndexOutOfBoundsException
+	 *             If the cell is outside the layer.
+	 */
+	public void setGid(int x, int y, int gid) {
+		checkBounds(x, y);
+		gids = gids.set(y * width + x, gid);
+		if (tiles != null) {
+			tiles[x][y] = parent.getTile(gid & GID_MASK);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Copy the gids in a region of this layer into an array, in row-major order.
+	 * </p>
+	 *
+	 * <p>
+	 * This is much faster than calling <i>getGid</i> for every cell, and is meant for render and
+	 * collision loops.
+	 * </p>
+	 *
+	 * @param region
+	 *            The cells to copy. Must be inside the layer.
+	 * @param dest
+	 *            The array to copy into. Must hold at least <i>region.width * region.height</i>
+	 *            gids. The gid of cell (x, y) is stored at
+	 *            <i>(y - region.y) * region.width + (x - region.x)</i>.
+	 * @throws IndexOutOfBoundsException
+	 *             If the region is outside the layer, or <i>dest</i> is too small.
+	 */
+	public void copyGids(Rect region, int[] dest) {
+		if (region.width == 0 || region.height == 0) {
+			return;
+		}
+		checkBounds(region.x, region.y);
+		checkBounds(region.x + region.width - 1, region.y + region.height - 1);
+		if (dest.length < region.width * region.height) {
+			throw new IndexOutOfBoundsException("Destination holds " + dest.length + " gids, but the region has " + region.width * region.height);
+		}
+		for (int row = 0; row < region.height; row++) {
+			gids.get((region.y + row) * width + region.x, dest, row * region.width, region.width);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Get every tile in this layer, in <i>tile[x][y]</i> format.
+	 * </p>
+	 *
+	 * <p>
+	 * The array is built the first time this is called, then kept in the <i>tiles</i> field.
+	 * Prefer <i>getTile</i> or <i>copyGids</i>, which don't need the extra memory.
+	 * </p>
+	 *
+	 * @return The tiles. Cells with no tile are null. Tile flipping flags are not included; use
+	 *         <i>getFlipFlags</i> for those.
+	 */
+	@SuppressWarnings("unchecked")
+	public Tile<IMG>[][] getTiles() {
+		if (tiles == null) {
+			Tile<IMG>[][] view = new Tile[width][height];
+			for (int row = 0; row < height; row++) {
+				for (int col = 0; col < width; col++) {
+					view[col][row] = parent.getTile(gids.get(row * width + col) & GID_MASK);
+				}
+			}
+			tiles = view;
+		}
+		return tiles;
+	}
+
+	private void checkBounds(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			throw new IndexOutOfBoundsException("Cell (" + x + ", " + y + ") is outside the " + width + "x" + height + " layer '" + name + "'");
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public Object clone() throws CloneNotSupportedException {
 		TileLayer<IMG> ret = (TileLayer<IMG>) super.clone();
-		ret.tiles = new Tile[width][height];
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				ret.tiles[i][j] = tiles[i][j];
+		if (gids != null) {
+			ret.gids = gids.copy();
+		}
+		if (tiles != null) {
+			ret.tiles = new Tile[width][height];
+			for (int i = 0; i < width; i++) {
+				for (int j = 0; j < height; j++) {
+					ret.tiles[i][j] = tiles[i][j];
+				}
 			}
 		}
 		return ret;
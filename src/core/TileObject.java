@@ -2,6 +2,7 @@ package core;
 
 import org.w3c.dom.Element;
 import privateUtil.Util;
+import util.AttributeParsingErrorException;
 
 /**
  * <p>
@@ -26,16 +27,48 @@ public class TileObject<IMG> extends TMXObject {
 	 * The tile used by this object.
 	 */
 	public Tile<IMG> tile;
+	/**
+	 * The tile flipping flags from the object's gid. Some combination of
+	 * <i>TileLayer.FLIPPED_HORIZ_FLAG</i>, <i>TileLayer.FLIPPED_VERT_FLAG</i>, and
+	 * <i>TileLayer.FLIPPED_DIAG_FLAG</i>, or 0 if the tile isn't flipped.
+	 */
+	public int flipFlags;
 
 	TileObject(Element element, MapFile<IMG> parent) {
 		super(element);
 
-		int tileId = Util.getIntAttribute(element, "gid");
-		tile = parent.getTile(tileId);
+		// The flipping flags make gids unsigned 32-bit values.
+		long gid = Util.getLongAttribute(element, "gid");
+		if (gid < 0 || gid > 0xFFFFFFFFL) {
+			throw new AttributeParsingErrorException(element, "gid", "Value must be an unsigned 32-bit integer", gid);
+		}
+		flipFlags = (int) gid & ~TileLayer.GID_MASK;
+		tile = parent.getTile((int) gid & TileLayer.GID_MASK);
 	}
 
 	/**
 	 * Manually create a TileObject instance. No fields are initialized.
 	 */
 	public TileObject() {}
+
+	/**
+	 * @return True if the tile is flipped horizontally.
+	 */
+	public boolean isFlippedHorizontally() {
+		return (flipFlags & TileLayer.FLIPPED_HORIZ_FLAG) != 0;
+	}
+
+	/**
+	 * @return True if the tile is flipped vertically.
+	 */
+	public boolean isFlippedVertically() {
+		return (flipFlags & TileLayer.FLIPPED_VERT_FLAG) != 0;
+	}
+
+	/**
+	 * @return True if the tile is flipped diagonally. See <i>TileLayer.FLIPPED_DIAG_FLAG</i>.
+	 */
+	public boolean isFlippedDiagonally() {
+		return (flipFlags & TileLayer.FLIPPED_DIAG_FLAG) != 0;
+	}
 }
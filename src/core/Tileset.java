@@ -1,12 +1,12 @@
 package core;
 
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import org.w3c.dom.Element;
 import privateUtil.Util;
 import privateUtil.Util.ElementIterator;
 import util.AttributeParsingErrorException;
+import util.LoadOptions;
 import util.Rect;
 import util.ResourceLoaderDelegate;
 
@@ -66,7 +66,8 @@ public class Tileset<IMG> {
 	 */
 	public int tileCount;
 	/**
-	 * The full image. Null if no image delegate was provided.
+	 * The full image. Null if no image delegate was provided, or if the map was loaded with
+	 * <i>LoadOptions.headless</i>.
 	 */
 	public IMG tilesetImage;
 	/**
@@ -84,8 +85,14 @@ public class Tileset<IMG> {
 	 */
 	public TMXColor transparentColor;
 
+	/**
+	 * The delegate used to slice tile images on demand, or null if every tile was sliced when
+	 * the tileset was loaded.
+	 */
+	private ResourceLoaderDelegate<IMG> lazyDelegate;
+
 	@SuppressWarnings("unchecked")
-	Tileset(Element element, ResourceLoaderDelegate<IMG> delegate) {
+	Tileset(Element element, ResourceLoaderDelegate<IMG> delegate, LoadOptions options, String baseDirectory) {
 		// Read layout info.
 		tileWidth = Util.getIntAttribute(element, "tilewidth");
 		if (tileWidth <= 0) {
@@ -119,11 +126,17 @@ public class Tileset<IMG> {
 		transparentColor = Util.getColorAttribute(imageTag, "trans", null);
 
 		IMG mainImage = null;
+		if (options.headless) {
+			// Only the metadata is wanted, so the delegate is never asked for an image.
+			delegate = null;
+		}
 		if (delegate != null) {
-			// TODO: Properly handle relative paths.
-			InputStream imageFile = delegate.openFile(imageFilePath, "");
-			mainImage = delegate.loadImage(imageFile, transparentColor);
+			mainImage = Util.loadImage(delegate, Util.resolvePath(baseDirectory, imageFilePath), transparentColor);
+			if (options.lazyTileImages) {
+				lazyDelegate = delegate;
+			}
 		}
+		tilesetImage = mainImage;
 
 		// Get tile metadata.
 		HashMap<Integer, Element> tileElementsById = new HashMap<>();
@@ -148,7 +161,7 @@ public class Tileset<IMG> {
 
 			// Make the tile's sub-image.
 			IMG tileImg = null;
-			if (delegate != null) {
+			if (delegate != null && lazyDelegate == null) {
 				tileImg = delegate.sliceImage(mainImage, pixelRect);
 			}
 
@@ -194,4 +207,35 @@ public class Tileset<IMG> {
 			tiles[i] = tile;
 		}
 	}
+
+	/**
+	 * Slice the image of a tile that hasn't been sliced yet. Called by <i>Tile.getImage</i>.
+	 */
+	IMG sliceTileImage(Tile<IMG> tile) {
+		if (lazyDelegate == null) {
+			return tile.image;
+		}
+		synchronized (tile) {
+			if (tile.image == null) {
+				tile.image = lazyDelegate.sliceImage(tilesetImage, tile.pixelRect);
+			}
+			return tile.image;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Slice the image of every tile that hasn't been sliced yet.
+	 * </p>
+	 * 
+	 * <p>
+	 * This only does anything if the tileset was loaded with <i>LoadOptions.lazyTileImages</i>. It
+	 * can be used to move the slicing cost to a loading screen.
+	 * </p>
+	 */
+	public void sliceAllImages() {
+		for (Tile<IMG> tile : tiles) {
+			tile.getImage();
+		}
+	}
 }
@@ -0,0 +1,173 @@
+package privateUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * <p>
+ * Decodes base64 text from a Reader into bytes, as it is read.
+ * </p>
+ * 
+ * <p>
+ * Whitespace anywhere in the text is ignored, since Tiled indents the data and may break it
+ * into lines. Decoding stops at the first padding character.
+ * </p>
+ */
+public class Base64InputStream extends InputStream {
+	private static final int[] DECODE_TABLE = createDecodeTable();
+
+	private Reader source;
+	private char[] chars;
+	private int charPosition;
+	private int charCount;
+	private byte[] decoded;
+	private int decodedPosition;
+	private int decodedCount;
+	private boolean finished;
+
+	/**
+	 * @param source
+	 *            The base64 text.
+	 */
+	public Base64InputStream(Reader source) {
+		this.source = source;
+		chars = new char[8192];
+		charPosition = 0;
+		charCount = 0;
+		decoded = new byte[3];
+		decodedPosition = 0;
+		decodedCount = 0;
+		finished = false;
+	}
+
+	private static int[] createDecodeTable() {
+		int[] table = new int[128];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = -1;
+		}
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < alphabet.length(); i++) {
+			table[alphabet.charAt(i)] = i;
+		}
+		return table;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (decodedPosition == decodedCount && !decodeQuantum()) {
+			return -1;
+		}
+		return decoded[decodedPosition++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		int total = 0;
+		while (total < length) {
+			if (decodedPosition == decodedCount) {
+				// Fast path: decode whole quanta straight into the caller's buffer.
+				while (!finished && length - total >= 3 && charCount - charPosition >= 4) {
+					int a = decodeChar(chars[charPosition]);
+					int b = decodeChar(chars[charPosition + 1]);
+					int c = decodeChar(chars[charPosition + 2]);
+					int d = decodeChar(chars[charPosition + 3]);
+					if ((a | b | c | d) < 0) {
+						break;
+					}
+					int bits = (a << 18) | (b << 12) | (c << 6) | d;
+					buffer[offset + total] = (byte) (bits >> 16);
+					buffer[offset + total + 1] = (byte) (bits >> 8);
+					buffer[offset + total + 2] = (byte) bits;
+					total += 3;
+					charPosition += 4;
+				}
+				if (total == length || !decodeQuantum()) {
+					break;
+				}
+			}
+			int count = Math.min(length - total, decodedCount - decodedPosition);
+			System.arraycopy(decoded, decodedPosition, buffer, offset + total, count);
+			decodedPosition += count;
+			total += count;
+		}
+		return total == 0 ? -1 : total;
+	}
+
+	private static int decodeChar(char c) {
+		return c < 128 ? DECODE_TABLE[c] : -1;
+	}
+
+	/**
+	 * Decode the next 4 characters, skipping whitespace, into <i>decoded</i>.
+	 */
+	private boolean decodeQuantum() throws IOException {
+		if (finished) {
+			return false;
+		}
+		int bits = 0;
+		int count = 0;
+		while (count < 4) {
+			int c = nextChar();
+			if (c == -1) {
+				break;
+			}
+			if (c == '=') {
+				finished = true;
+				break;
+			}
+			int value = decodeChar((char) c);
+			if (value < 0) {
+				throw new IOException("Invalid base64 character: '" + (char) c + "'");
+			}
+			bits = (bits << 6) | value;
+			count += 1;
+		}
+
+		decodedPosition = 0;
+		if (count == 4) {
+			decoded[0] = (byte) (bits >> 16);
+			decoded[1] = (byte) (bits >> 8);
+			decoded[2] = (byte) bits;
+			decodedCount = 3;
+		} else if (count == 3) {
+			bits <<= 6;
+			decoded[0] = (byte) (bits >> 16);
+			decoded[1] = (byte) (bits >> 8);
+			decodedCount = 2;
+			finished = true;
+		} else if (count == 2) {
+			bits <<= 12;
+			decoded[0] = (byte) (bits >> 16);
+			decodedCount = 1;
+			finished = true;
+		} else if (count == 0) {
+			decodedCount = 0;
+			finished = true;
+			return false;
+		} else {
+			throw new IOException("Truncated base64 data");
+		}
+		return true;
+	}
+
+	private int nextChar() throws IOException {
+		while (true) {
+			if (charPosition == charCount) {
+				charCount = source.read(chars, 0, chars.length);
+				charPosition = 0;
+				if (charCount <= 0) {
+					charCount = 0;
+					return -1;
+				}
+			}
+			char c = chars[charPosition++];
+			if (!Character.isWhitespace(c)) {
+				return c;
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package privateUtil;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongConsumer;
+
+/**
+ * An input stream that reports the total number of bytes read from it after every read.
+ */
+public class CountingInputStream extends FilterInputStream {
+	private final LongConsumer listener;
+	private long count;
+
+	/**
+	 * @param in
+	 *            The stream to read from.
+	 * @param listener
+	 *            Called with the total number of bytes read so far, after every read.
+	 */
+	public CountingInputStream(InputStream in, LongConsumer listener) {
+		super(in);
+		this.listener = listener;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int value = super.read();
+		if (value != -1) {
+			count++;
+			listener.accept(count);
+		}
+		return value;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+		if (read > 0) {
+			count += read;
+			listener.accept(count);
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		if (skipped > 0) {
+			count += skipped;
+			listener.accept(count);
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		// The count would be wrong after a reset.
+		return false;
+	}
+}
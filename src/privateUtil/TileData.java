@@ -0,0 +1,253 @@
+package privateUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import util.FileParsingException;
+import util.Rect;
+
+/**
+ * Decoders for the contents of a tile layer's <i>data</i> element.
+ */
+public abstract class TileData {
+
+	/**
+	 * <p>
+	 * Decode CSV tile data into <i>gids</i>.
+	 * </p>
+	 * 
+	 * <p>
+	 * The text is scanned one character at a time, and each gid is parsed in place as an unsigned
+	 * 32-bit integer (including the tile flipping flags). No Strings are created, except for error
+	 * messages. Whitespace and newlines around cells are ignored.
+	 * </p>
+	 * 
+	 * @param xmlPath
+	 *            The path of the data element, for error messages. See <i>Util.getFullXmlPath</i>.
+	 * @param data
+	 *            The text content of the data element.
+	 * @param width
+	 *            The width of the layer.
+	 * @param height
+	 *            The height of the layer.
+	 * @param window
+	 *            The cells to keep. Must be inside the layer. If it doesn't reach the bottom of the
+	 *            layer, the data after its last row isn't read or checked.
+	 * @param gids
+	 *            The array to fill with the cells in <i>window</i>, in row-major order.
+	 * @throws FileParsingException
+	 *             If a cell is malformed, or the number of gids doesn't match.
+	 */
+	public static void decodeCsv(String xmlPath, Reader data, int width, int height, Rect window, int[] gids) {
+		GidWindow cells = new GidWindow(xmlPath, width, height, window, gids);
+		char[] buffer = new char[8192];
+		long value = 0;
+		boolean inCell = false;
+		boolean cellEnded = false;
+		try {
+			int count;
+			while ((count = data.read(buffer, 0, buffer.length)) != -1) {
+				for (int i = 0; i < count; i++) {
+					char c = buffer[i];
+					if (c >= '0' && c <= '9') {
+						if (cellEnded) {
+							throw cells.badCell("Unexpected whitespace inside a cell");
+						}
+						value = value * 10 + (c - '0');
+						if (value > 0xFFFFFFFFL) {
+							throw cells.badCell("Value is larger than 32 bits");
+						}
+						inCell = true;
+					} else if (c == ',') {
+						if (!inCell) {
+							throw cells.badCell("Empty cell");
+						}
+						if (!cells.add((int) value)) {
+							return;
+						}
+						value = 0;
+						inCell = false;
+						cellEnded = false;
+					} else if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+						if (inCell) {
+							cellEnded = true;
+						}
+					} else {
+						throw cells.badCell("Unexpected character '" + c + "'");
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new FileParsingException(xmlPath + ": Error while reading tile data", e);
+		}
+
+		// The last cell isn't followed by a comma.
+		if (inCell) {
+			cells.add((int) value);
+		}
+		cells.finish();
+	}
+
+	/**
+	 * <p>
+	 * Decode base64 tile data, optionally compressed, into <i>gids</i>.
+	 * </p>
+	 * 
+	 * <p>
+	 * The text is decoded and inflated as it is read; it is never collected into a String. Each
+	 * gid is stored as a little-endian unsigned 32-bit int, including the tile flipping flags.
+	 * </p>
+	 * 
+	 * @param xmlPath
+	 *            The path of the data element, for error messages. See <i>Util.getFullXmlPath</i>.
+	 * @param data
+	 *            The text content of the data element.
+	 * @param compression
+	 *            "zlib", "gzip", or null for uncompressed data.
+	 * @param width
+	 *            The width of the layer.
+	 * @param height
+	 *            The height of the layer.
+	 * @param window
+	 *            The cells to keep. Must be inside the layer. If it doesn't reach the bottom of the
+	 *            layer, the data after its last row isn't decoded or checked.
+	 * @param gids
+	 *            The array to fill with the cells in <i>window</i>, in row-major order.
+	 * @throws FileParsingException
+	 *             If the data is malformed, the compression is unsupported, or the number of
+	 *             gids doesn't match.
+	 */
+	public static void decodeBase64(String xmlPath, Reader data, String compression, int width, int height, Rect window, int[] gids) {
+		Inflater inflater = null;
+		InputStream bytes = new Base64InputStream(data);
+		try {
+			if (compression == null) {
+				// Uncompressed; read the bytes directly.
+			} else if (compression.equals("zlib")) {
+				inflater = new Inflater();
+				bytes = new InflaterInputStream(bytes, inflater, 8192);
+			} else if (compression.equals("gzip")) {
+				bytes = new GZIPInputStream(bytes, 8192);
+			} else {
+				throw new FileParsingException(xmlPath + ": Unsupported compression: '" + compression + "'; expected zlib or gzip");
+			}
+
+			readGids(xmlPath, bytes, new GidWindow(xmlPath, width, height, window, gids));
+		} catch (IOException e) {
+			throw new FileParsingException(xmlPath + ": Error while decoding tile data", e);
+		} finally {
+			// Closing a GZIPInputStream ends its Inflater, even if the data was malformed.
+			try {
+				bytes.close();
+			} catch (IOException e) {
+				System.out.println("TileData: Error while closing tile data stream: " + e.getMessage());
+			}
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+
+	private static void readGids(String xmlPath, InputStream bytes, GidWindow cells) throws IOException {
+		byte[] buffer = new byte[8192];
+		// Bytes left over from the last read that don't make a full gid yet.
+		int carry = 0;
+		int count;
+		while ((count = bytes.read(buffer, carry, buffer.length - carry)) != -1) {
+			int available = carry + count;
+			int end = available - (available % 4);
+			for (int i = 0; i < end; i += 4) {
+				if (!cells.add((buffer[i] & 0xFF) | (buffer[i + 1] & 0xFF) << 8 | (buffer[i + 2] & 0xFF) << 16 | (buffer[i + 3] & 0xFF) << 24)) {
+					return;
+				}
+			}
+			carry = available - end;
+			System.arraycopy(buffer, end, buffer, 0, carry);
+		}
+
+		if (carry != 0) {
+			throw new FileParsingException(xmlPath + ": Expected " + cells.total + " tiles, found " + cells.count + " and " + carry + " extra bytes");
+		}
+		cells.finish();
+	}
+
+	/**
+	 * Counts the gids of a layer as they are decoded, and keeps the ones inside a window.
+	 */
+	private static final class GidWindow {
+		private final String xmlPath;
+		private final int width;
+		private final int left;
+		private final int right;
+		private final int top;
+		private final int bottom;
+		private final int[] gids;
+		/**
+		 * The number of gids in the layer. A long, since layers far too large to load still have to
+		 * be counted correctly to report the error.
+		 */
+		final long total;
+		/**
+		 * The number of gids needed to reach the end of the window's last row.
+		 */
+		private final long end;
+		/**
+		 * The number of gids decoded so far.
+		 */
+		long count;
+		private int column;
+		private int row;
+		private int stored;
+
+		GidWindow(String xmlPath, int width, int height, Rect window, int[] gids) {
+			this.xmlPath = xmlPath;
+			this.width = width;
+			this.gids = gids;
+			left = window.x;
+			right = window.x + window.width;
+			top = window.y;
+			bottom = window.y + window.height;
+			total = (long) width * height;
+			end = window.width == 0 || window.height == 0 ? 0 : ((long) window.y + window.height) * width;
+		}
+
+		/**
+		 * Add the next gid of the layer.
+		 * 
+		 * @return False if the rest of the data isn't needed.
+		 */
+		boolean add(int gid) {
+			if (count == total) {
+				throw new FileParsingException(xmlPath + ": Too much tile data; expected " + total + " tiles");
+			}
+			if (row >= top && row < bottom && column >= left && column < right) {
+				gids[stored++] = gid;
+			}
+			count++;
+			if (++column == width) {
+				column = 0;
+				row++;
+			}
+			// The whole layer is read if the window reaches its end, so the count can be checked.
+			return end == total || count < end;
+		}
+
+		/**
+		 * Called once all the data has been read.
+		 */
+		void finish() {
+			if (count != total) {
+				throw new FileParsingException(xmlPath + ": Expected " + total + " tiles, found " + count);
+			}
+		}
+
+		FileParsingException badCell(String description) {
+			long badColumn = width == 0 ? count : count % width;
+			long badRow = width == 0 ? 0 : count / width;
+			return new FileParsingException(xmlPath + ": Malformed gid at column " + badColumn + ", row " + badRow + ": " + description);
+		}
+	}
+}
@@ -3,18 +3,27 @@ package privateUtil;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 import core.TMXColor;
 import util.AttributeNotFoundException;
 import util.AttributeParsingErrorException;
+import util.FileParsingException;
+import util.ResourceLoaderDelegate;
 
 /**
  * Utility class containing static methods used in the rest of the library.
@@ -22,17 +31,60 @@ import util.AttributeParsingErrorException;
  */
 public abstract class Util {
 
+	private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+	private static final DocumentBuilderFactory DOCUMENT_FACTORY = DocumentBuilderFactory.newInstance();
+	/**
+	 * The user data key holding the number of children removed by <i>discardElement</i>.
+	 */
+	private static final String DISCARDED_COUNT = "tmx.discarded";
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// TMX files never need a DTD, and we don't want to fetch one over the network.
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		// Keep large text nodes (tile data) split into chunks, so they can be streamed.
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
+	}
+
 	/**
 	 * Load the given file into a Dom, then return the root element of the Dom. The filename should include
 	 * the extension to the file.
 	 * 
+	 * <p>
+	 * The Dom is built from the same streaming parser used for map files. This should only be used for
+	 * small files, like tilesets; map files are streamed instead.
+	 * </p>
+	 * 
 	 * @param stream
 	 *            The TMX file to open.
 	 * @return The root element of the Dom tree.
-	 * @throws RuntimeException
-	 *             when an IO error or Dom parsing error happens.
+	 * @throws FileParsingException
+	 *             when an IO error or XML parsing error happens.
 	 */
 	public static Element loadXmlFile(InputStream stream) {
+		XMLStreamReader reader = openXmlStream(stream);
+		try {
+			reader.nextTag();
+			return readElement(reader, newDocument());
+		} catch (XMLStreamException e) {
+			throw xmlError(e);
+		} finally {
+			closeXmlStream(reader);
+		}
+	}
+
+	/**
+	 * Open a streaming XML reader for the given file.
+	 * 
+	 * @param stream
+	 *            The file to read.
+	 * @return A new reader, positioned at the start of the document.
+	 * @throws FileParsingException
+	 *             when the stream cannot be read as XML.
+	 */
+	public static XMLStreamReader openXmlStream(InputStream stream) {
 		BufferedInputStream bufferedInput = null;
 		if (stream instanceof BufferedInputStream) {
 			bufferedInput = (BufferedInputStream) stream;
@@ -41,19 +93,359 @@ public abstract class Util {
 		}
 
 		try {
-			Document dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(bufferedInput);
-			return dom.getDocumentElement();
+			// The JDK factory is safe to share, but that isn't promised by the API.
+			synchronized (XML_INPUT_FACTORY) {
+				return XML_INPUT_FACTORY.createXMLStreamReader(bufferedInput);
+			}
+		} catch (XMLStreamException e) {
+			throw xmlError(e);
+		}
+	}
+
+	/**
+	 * Close a reader opened by <i>openXmlStream</i>. This does not close the underlying stream.
+	 * 
+	 * @param reader
+	 *            The reader to close.
+	 */
+	public static void closeXmlStream(XMLStreamReader reader) {
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			System.out.println("Util: Error while closing XML stream: " + e.getMessage());
+		}
+	}
 
+	/**
+	 * Create an empty Dom document, used to hold elements built from a streaming reader.
+	 * 
+	 * @return A new document.
+	 */
+	public static Document newDocument() {
+		try {
+			synchronized (DOCUMENT_FACTORY) {
+				return DOCUMENT_FACTORY.newDocumentBuilder().newDocument();
+			}
 		} catch (ParserConfigurationException e) {
-			// TODO Auto-generated catch block
-			throw new RuntimeException("ParserConfigurationException handler not yet written in constructor of MapFile.", e);
-		} catch (SAXException e) {
-			// TODO Auto-generated catch block
-			throw new RuntimeException("SAXException handler not yet written in loadXmlFile of Util.", e);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			throw new RuntimeException("IOException handler not yet written in loadXmlFile of Util.", e);
+			throw new RuntimeException("Unable to create a Dom document builder.", e);
+		}
+	}
+
+	/**
+	 * Wrap an XML error in a FileParsingException that includes the location of the error.
+	 * 
+	 * @param e
+	 *            The error from the XML reader.
+	 * @return The exception to throw.
+	 */
+	public static FileParsingException xmlError(XMLStreamException e) {
+		Location location = e.getLocation();
+		if (location == null) {
+			return new FileParsingException("Malformed XML: " + e.getMessage(), e);
+		}
+		return new FileParsingException("Malformed XML at line " + location.getLineNumber() + ", column " + location.getColumnNumber() + ": " + e.getMessage(), e);
+	}
+
+	/**
+	 * <p>
+	 * Free the memory of a direct buffer now, instead of when the buffer is garbage collected.
+	 * </p>
+	 * 
+	 * <p>
+	 * The buffer, and every view of it, must never be used again: reading freed memory can crash
+	 * the JVM. If the JVM doesn't allow buffers to be freed early, nothing is done, and the memory
+	 * is freed by the garbage collector as usual.
+	 * </p>
+	 * 
+	 * @param buffer
+	 *            A buffer returned by <i>ByteBuffer.allocateDirect</i>, not a slice or view of one.
+	 */
+	public static void freeDirectBuffer(ByteBuffer buffer) {
+		try {
+			// Java 9 and later.
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (NoSuchMethodException e) {
+			// Java 8.
+			try {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			} catch (ReflectiveOperationException | RuntimeException e2) {
+				// Left to the garbage collector.
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Left to the garbage collector.
+		}
+	}
+
+	/**
+	 * <p>
+	 * Create an element with the same name and attributes as the reader's current start tag, and append
+	 * it to <i>parent</i>. None of the children are read.
+	 * </p>
+	 * 
+	 * <p>
+	 * The reader must be positioned on a start tag, and it is not moved.
+	 * </p>
+	 * 
+	 * @param reader
+	 *            The streaming reader.
+	 * @param parent
+	 *            The node to append the new element to. Keeping the parent chain intact means
+	 *            <i>getFullXmlPath</i> still works for error messages.
+	 * @return The new element.
+	 */
+	public static Element readElementHeader(XMLStreamReader reader, Node parent) {
+		Document document = parent instanceof Document ? (Document) parent : parent.getOwnerDocument();
+		Element element = document.createElement(reader.getLocalName());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+		}
+		parent.appendChild(element);
+		return element;
+	}
+
+	/**
+	 * <p>
+	 * Read the reader's current element and all of its children into a Dom element, and append it to
+	 * <i>parent</i>.
+	 * </p>
+	 * 
+	 * <p>
+	 * The reader must be positioned on a start tag. When this returns, it is positioned on the
+	 * matching end tag.
+	 * </p>
+	 * 
+	 * @param reader
+	 *            The streaming reader.
+	 * @param parent
+	 *            The node to append the new element to.
+	 * @return The new element.
+	 */
+	public static Element readElement(XMLStreamReader reader, Node parent) {
+		Element root = readElementHeader(reader, parent);
+		Document document = root.getOwnerDocument();
+		Node current = root;
+		int depth = 1;
+		try {
+			while (depth > 0) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					current = readElementHeader(reader, current);
+					depth += 1;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					current = current.getParentNode();
+					depth -= 1;
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					current.appendChild(document.createTextNode(reader.getText()));
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw xmlError(e);
+		}
+		return root;
+	}
+
+	/**
+	 * <p>
+	 * Skip over the reader's current element and all of its children.
+	 * </p>
+	 * 
+	 * <p>
+	 * The reader must be positioned on a start tag. When this returns, it is positioned on the
+	 * matching end tag.
+	 * </p>
+	 * 
+	 * @param reader
+	 *            The streaming reader.
+	 */
+	public static void skipElement(XMLStreamReader reader) {
+		int depth = 1;
+		try {
+			while (depth > 0) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth += 1;
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth -= 1;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw xmlError(e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Advance the reader to the next child element of the current element.
+	 * </p>
+	 * 
+	 * <p>
+	 * The reader must be positioned on the parent's start tag, or on the end tag of a previous child.
+	 * Text and comments between children are ignored.
+	 * </p>
+	 * 
+	 * @param reader
+	 *            The streaming reader.
+	 * @return True if the reader is now on a child's start tag; false if it reached the parent's end tag.
+	 */
+	public static boolean nextChildElement(XMLStreamReader reader) {
+		try {
+			while (true) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					return true;
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					return false;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw xmlError(e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Remove an element that has already been processed, so its children can be garbage collected.
+	 * </p>
+	 * 
+	 * <p>
+	 * The parent keeps a count of its discarded children, so that <i>getFullXmlPath</i> still gives
+	 * the right index for the siblings that come after it, without keeping a node for each one.
+	 * </p>
+	 * 
+	 * @param element
+	 *            The element to discard.
+	 */
+	public static void discardElement(Element element) {
+		Node parent = element.getParentNode();
+		if (parent != null) {
+			parent.removeChild(element);
+			parent.setUserData(DISCARDED_COUNT, getDiscardedCount(parent) + 1, null);
+		}
+	}
+
+	/**
+	 * @return The number of children of <i>node</i> removed by <i>discardElement</i>.
+	 */
+	private static int getDiscardedCount(Node node) {
+		Object count = node.getUserData(DISCARDED_COUNT);
+		return count == null ? 0 : (Integer) count;
+	}
+
+	/**
+	 * <p>
+	 * Resolve a path found in a TMX or TSX file against the directory of that file.
+	 * </p>
+	 * 
+	 * <p>
+	 * Backslashes are replaced with '/', and "." and ".." segments are removed where possible, so
+	 * the same file always gets the same path no matter how it was referenced.
+	 * </p>
+	 * 
+	 * @param baseDirectory
+	 *            The directory of the file containing the path, ending in '/', or an empty string.
+	 * @param path
+	 *            The path, as given in the file. Absolute paths are not changed, except to be
+	 *            normalized.
+	 * @return The normalized path.
+	 */
+	public static String resolvePath(String baseDirectory, String path) {
+		path = path.replace('\\', '/');
+		boolean absolute = path.startsWith("/") || (path.length() >= 2 && path.charAt(1) == ':');
+		String fullPath = absolute ? path : baseDirectory + path;
+
+		ArrayList<String> segments = new ArrayList<>();
+		for (String segment : fullPath.split("/")) {
+			if (segment.isEmpty() || segment.equals(".")) {
+				continue;
+			}
+			if (segment.equals("..")) {
+				if (!segments.isEmpty() && !segments.get(segments.size() - 1).equals("..")) {
+					segments.remove(segments.size() - 1);
+					continue;
+				} else if (fullPath.startsWith("/")) {
+					// Can't go above the root directory.
+					continue;
+				}
+			}
+			segments.add(segment);
+		}
+		return (fullPath.startsWith("/") ? "/" : "") + String.join("/", segments);
+	}
+
+	/**
+	 * @param path
+	 *            A path from <i>resolvePath</i>.
+	 * @return The directory part of the path, ending in '/', or an empty string if the path has no
+	 *         directories.
+	 */
+	public static String getDirectory(String path) {
+		return path.substring(0, path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * @param path
+	 *            A path from <i>resolvePath</i>.
+	 * @return The path without its directory part.
+	 */
+	public static String getFileName(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * <p>
+	 * Load an image through a delegate, using the delegate's image cache.
+	 * </p>
+	 * 
+	 * <p>
+	 * The image is looked up in the cache by its resolved path and transparent color. If it isn't
+	 * cached, it's loaded with <i>loadImage</i> and then added to the cache, so every tileset and
+	 * image layer using the same file shares one image.
+	 * </p>
+	 * 
+	 * @param delegate
+	 *            The delegate to load the image with.
+	 * @param path
+	 *            The path of the image, from <i>resolvePath</i>.
+	 * @param transparentColor
+	 *            The color to replace with transparency. Null if not specified.
+	 * @param <IMG>
+	 *            The image class of the delegate.
+	 * @return The image.
+	 */
+	public static <IMG> IMG loadImage(ResourceLoaderDelegate<IMG> delegate, String path, TMXColor transparentColor) {
+		String filename = getFileName(path);
+		String baseDirectory = getDirectory(path);
+		IMG image = delegate.getCachedImage(filename, baseDirectory, transparentColor);
+		if (image == null) {
+			InputStream imageFile = delegate.openFile(filename, baseDirectory);
+			try {
+				image = delegate.loadImage(imageFile, transparentColor);
+			} finally {
+				try {
+					imageFile.close();
+				} catch (IOException e) {
+					System.out.println("Util: Error while closing image stream: '" + path + "'");
+				}
+			}
+			delegate.cacheImage(filename, baseDirectory, transparentColor, image);
 		}
+		return image;
 	}
 
 	/**
@@ -124,7 +516,8 @@ public abstract class Util {
 
 			NodeList siblings = parent.getChildNodes();
 			int position = -1;
-			int positionSkipText = 0;
+			// Discarded siblings always came before the ones still in the Dom.
+			int positionSkipText = getDiscardedCount(parent);
 			for (int i = 0; i < siblings.getLength(); i++) {
 				if (siblings.item(i) == child) {
 					position = i;
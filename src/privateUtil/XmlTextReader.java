@@ -0,0 +1,102 @@
+package privateUtil;
+
+import java.io.IOException;
+import java.io.Reader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import util.FileParsingException;
+
+/**
+ * <p>
+ * A Reader over the text content of a single element in a streaming XML reader.
+ * </p>
+ * 
+ * <p>
+ * The text is copied straight out of the XML reader's buffer, so the content is never
+ * collected into a String. This is used for tile data, which can be many megabytes.
+ * </p>
+ * 
+ * <p>
+ * The element must not have any child elements. After the last character is read (or the
+ * reader is closed), the XML reader is positioned on the element's end tag.
+ * </p>
+ */
+public class XmlTextReader extends Reader {
+	private XMLStreamReader reader;
+	private String elementName;
+	private int textPosition;
+	private int textLength;
+	private boolean finished;
+
+	/**
+	 * @param reader
+	 *            The XML reader. It must be positioned on the element's start tag.
+	 */
+	public XmlTextReader(XMLStreamReader reader) {
+		this.reader = reader;
+		elementName = reader.getLocalName();
+		textPosition = 0;
+		textLength = 0;
+		finished = false;
+	}
+
+	@Override
+	public int read(char[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		while (textPosition == textLength) {
+			if (!nextText()) {
+				return -1;
+			}
+		}
+		try {
+			int copied = reader.getTextCharacters(textPosition, buffer, offset, Math.min(length, textLength - textPosition));
+			textPosition += copied;
+			return copied;
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private boolean nextText() throws IOException {
+		if (finished) {
+			return false;
+		}
+		try {
+			while (true) {
+				switch (reader.next()) {
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					textPosition = 0;
+					textLength = reader.getTextLength();
+					return true;
+				case XMLStreamConstants.START_ELEMENT:
+					throw new FileParsingException("Unexpected '" + reader.getLocalName() + "' element inside '" + elementName + "'");
+				case XMLStreamConstants.END_ELEMENT:
+					finished = true;
+					textPosition = 0;
+					textLength = 0;
+					return false;
+				default:
+					break;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Skip any remaining text, leaving the XML reader on the element's end tag. This does not close
+	 * the XML reader.
+	 */
+	@Override
+	public void close() throws IOException {
+		while (nextText()) {
+			// Discard the rest of the text.
+		}
+	}
+}
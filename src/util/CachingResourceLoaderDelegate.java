@@ -0,0 +1,208 @@
+package util;
+
+import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import core.TMXColor;
+import core.Tileset;
+
+/**
+ * <p>
+ * A ResourceLoaderDelegate that caches tilesets and images loaded by another delegate.
+ * </p>
+ *
+ * <p>
+ * The cache is bounded by the estimated size of its entries. Images are measured with the
+ * function given to the constructor, and tilesets are estimated as
+ * <i>tileCount * tileWidth * tileHeight * 4</i> bytes. When the cache is over its limit, the least
+ * recently used entries are moved to a second tier of soft references. They can still be returned
+ * from the cache until the garbage collector needs the memory, so a server that cycles through
+ * many maps keeps a steady amount of memory.
+ * </p>
+ *
+ * <p>
+ * All methods are thread-safe, as long as the wrapped delegate is.
+ * </p>
+ *
+ * @param <IMG>
+ *            The image class to use.
+ */
+public class CachingResourceLoaderDelegate<IMG> implements ResourceLoaderDelegate<IMG> {
+	/**
+	 * The number of bytes per pixel assumed when estimating the size of a tileset.
+	 */
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private final ResourceLoaderDelegate<IMG> delegate;
+	private final ToLongFunction<IMG> imageSize;
+	private final long maxBytes;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final HashMap<String, SoftEntry> softEntries = new HashMap<>();
+	private final ReferenceQueue<Object> clearedEntries = new ReferenceQueue<>();
+	private long cachedBytes;
+
+	/**
+	 * @param delegate
+	 *            The delegate used to open files, load images, and slice images. Cannot be null.
+	 * @param maxBytes
+	 *            The estimated number of bytes to keep in the cache before entries are moved to
+	 *            soft references.
+	 * @param imageSize
+	 *            Returns the estimated number of bytes used by an image. Cannot be null.
+	 */
+	public CachingResourceLoaderDelegate(ResourceLoaderDelegate<IMG> delegate, long maxBytes, ToLongFunction<IMG> imageSize) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("maxBytes cannot be negative: " + maxBytes);
+		}
+		this.delegate = delegate;
+		this.maxBytes = maxBytes;
+		this.imageSize = imageSize;
+	}
+
+	@Override
+	public InputStream openFile(String filename, String baseDirectory) {
+		return delegate.openFile(filename, baseDirectory);
+	}
+
+	@Override
+	public IMG loadImage(InputStream input, TMXColor transparentColor) {
+		return delegate.loadImage(input, transparentColor);
+	}
+
+	@Override
+	public IMG sliceImage(IMG image, Rect pixelBounds) {
+		return delegate.sliceImage(image, pixelBounds);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Tileset<IMG> getCachedTileset(String filename, String baseDirectory) {
+		return (Tileset<IMG>) get("tileset:" + baseDirectory + filename);
+	}
+
+	@Override
+	public void cacheTileset(String filename, String baseDirectory, Tileset<IMG> loadedTileset) {
+		long size = (long) loadedTileset.tileCount * loadedTileset.tileWidth * loadedTileset.tileHeight * BYTES_PER_PIXEL;
+		put("tileset:" + baseDirectory + filename, loadedTileset, size);
+	}
+
+	@Override
+	public IMG getCachedImage(String filename, String baseDirectory) {
+		return getCachedImage(filename, baseDirectory, null);
+	}
+
+	@Override
+	public void cacheImage(String filename, String baseDirectory, IMG image) {
+		cacheImage(filename, baseDirectory, null, image);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public IMG getCachedImage(String filename, String baseDirectory, TMXColor transparentColor) {
+		return (IMG) get(imageKey(filename, baseDirectory, transparentColor));
+	}
+
+	@Override
+	public void cacheImage(String filename, String baseDirectory, TMXColor transparentColor, IMG image) {
+		put(imageKey(filename, baseDirectory, transparentColor), image, imageSize.applyAsLong(image));
+	}
+
+	/**
+	 * @return The estimated size of the entries that are strongly held by the cache, in bytes.
+	 *         Entries that have been moved to soft references are not counted.
+	 */
+	public synchronized long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	/**
+	 * Remove every tileset and image from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		softEntries.clear();
+		cachedBytes = 0;
+	}
+
+	private static String imageKey(String filename, String baseDirectory, TMXColor transparentColor) {
+		String key = "image:" + baseDirectory + filename;
+		if (transparentColor != null) {
+			key += "#" + transparentColor.red + "," + transparentColor.green + "," + transparentColor.blue + "," + transparentColor.alpha;
+		}
+		return key;
+	}
+
+	private synchronized Object get(String key) {
+		removeClearedEntries();
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			return entry.value;
+		}
+
+		SoftEntry softEntry = softEntries.remove(key);
+		if (softEntry == null) {
+			return null;
+		}
+		Object value = softEntry.get();
+		if (value != null) {
+			// Used again, so make it strongly held.
+			put(key, value, softEntry.size);
+		}
+		return value;
+	}
+
+	private synchronized void put(String key, Object value, long size) {
+		removeClearedEntries();
+		softEntries.remove(key);
+		Entry old = entries.put(key, new Entry(value, size));
+		if (old != null) {
+			cachedBytes -= old.size;
+		}
+		cachedBytes += size;
+
+		// Move the least recently used entries to the second tier. The new entry is moved too if
+		// it's bigger than the whole cache.
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (cachedBytes > maxBytes && iterator.hasNext()) {
+			Map.Entry<String, Entry> eldest = iterator.next();
+			iterator.remove();
+			cachedBytes -= eldest.getValue().size;
+			softEntries.put(eldest.getKey(), new SoftEntry(eldest.getKey(), eldest.getValue(), clearedEntries));
+		}
+	}
+
+	private void removeClearedEntries() {
+		SoftEntry cleared;
+		while ((cleared = (SoftEntry) clearedEntries.poll()) != null) {
+			// The key may have been cached again since this reference was made.
+			softEntries.remove(cleared.key, cleared);
+		}
+	}
+
+	private static class Entry {
+		final Object value;
+		final long size;
+
+		Entry(Object value, long size) {
+			this.value = value;
+			this.size = size;
+		}
+	}
+
+	private static class SoftEntry extends SoftReference<Object> {
+		final String key;
+		final long size;
+
+		SoftEntry(String key, Entry entry, ReferenceQueue<Object> queue) {
+			super(entry.value, queue);
+			this.key = key;
+			this.size = entry.size;
+		}
+	}
+}
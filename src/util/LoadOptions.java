@@ -0,0 +1,191 @@
+package util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import core.LayerInfo;
+
+/**
+ * <p>
+ * Options that control how a MapFile is loaded.
+ * </p>
+ * 
+ * <p>
+ * The default values give the same result as the MapFile constructors that don't take options.
+ * </p>
+ */
+public class LoadOptions {
+	/**
+	 * <p>
+	 * If true, tile images are not sliced from the tileset image while loading. Instead, each tile's
+	 * image is sliced the first time <i>Tile.getImage</i> is called for it. Defaults to false.
+	 * </p>
+	 * 
+	 * <p>
+	 * This saves time and memory when only some of the tiles in a tileset are ever drawn.
+	 * <i>Tile.getImage</i> may be called from any thread, so <i>ResourceLoaderDelegate.sliceImage</i>
+	 * must be thread-safe if tiles are drawn from more than one thread.
+	 * </p>
+	 * 
+	 * <p>
+	 * Tilesets loaded this way are not given to <i>ResourceLoaderDelegate.cacheTileset</i>, since
+	 * their <i>Tile.image</i> fields are null until sliced, and a later normal load expects them to
+	 * be filled in. A TilesetRegistry keeps them apart from the tilesets of normal loads.
+	 * </p>
+	 */
+	public boolean lazyTileImages;
+	/**
+	 * <p>
+	 * A registry of tileset files shared with other maps, or null to not use one. Defaults to null.
+	 * </p>
+	 * 
+	 * <p>
+	 * Use the same registry for maps that are loaded on different threads at the same time, so each
+	 * tileset file is only loaded once. See TilesetRegistry for more info.
+	 * </p>
+	 */
+	public TilesetRegistry<?> tilesetRegistry;
+	/**
+	 * <p>
+	 * Used to load tilesets in parallel, or null to load them one at a time. Defaults to null.
+	 * </p>
+	 * 
+	 * <p>
+	 * Each tileset (including its image and tile images) is loaded as a separate task, while the
+	 * map's layers are parsed on the loading thread. The tilesets are still added to the map in the
+	 * order they appear in the file. The ResourceLoaderDelegate must be thread-safe when this is
+	 * set.
+	 * </p>
+	 */
+	public Executor executor;
+	/**
+	 * <p>
+	 * Used to decode layers in parallel, or null to decode them on the loading thread. Defaults to
+	 * null.
+	 * </p>
+	 * 
+	 * <p>
+	 * The file is still read on the loading thread, but the data of each tile layer is only copied
+	 * there, and then decoded by this pool. Image layers also load their images in this pool. Sibling
+	 * layers are decoded at the same time, and the map isn't returned until they are all done. The
+	 * order of each group's <i>layers</i> doesn't change. This uses more memory while loading, since
+	 * the text of each tile layer is held until it's decoded. The ResourceLoaderDelegate must be
+	 * thread-safe when this is set.
+	 * </p>
+	 */
+	public ForkJoinPool layerPool;
+	/**
+	 * <p>
+	 * Chooses which layers to load, or null to load every layer. Defaults to null.
+	 * </p>
+	 * 
+	 * <p>
+	 * The filter is given the attributes and properties of each tile, object, and image layer before
+	 * its contents are read. Layers it rejects are left out of the map: their tile data is skipped
+	 * without being decoded, their objects aren't read, and their images aren't loaded. Groups are
+	 * always loaded, even if all their layers are rejected, so a filter can test a layer's path
+	 * without having to accept the groups above it.
+	 * </p>
+	 */
+	public Predicate<LayerInfo> layerFilter;
+	/**
+	 * <p>
+	 * If true, no images are loaded or sliced. Defaults to false.
+	 * </p>
+	 * 
+	 * <p>
+	 * The ResourceLoaderDelegate is only used to open the map and tileset files; <i>loadImage</i>,
+	 * <i>sliceImage</i>, and the image cache are never called. Tilesets, tiles, and image layers are
+	 * otherwise loaded as usual, with every image field left null. This is meant for servers, which
+	 * need the tile metadata but never draw anything.
+	 * </p>
+	 * 
+	 * <p>
+	 * Tilesets loaded this way are not given to <i>ResourceLoaderDelegate.cacheTileset</i>, since
+	 * they have no images. A TilesetRegistry keeps them apart from the tilesets of normal loads.
+	 * </p>
+	 */
+	public boolean headless;
+	/**
+	 * <p>
+	 * If true, each tile layer is stored in whichever way takes the least memory. Defaults to false,
+	 * which stores every layer as an int array.
+	 * </p>
+	 * 
+	 * <p>
+	 * The cells and gids of each tile layer are counted once it's decoded. Layers that use at most
+	 * 256 or 65536 different gids store an 8 or 16 bit index into a palette of those gids for each
+	 * cell, instead of the gid itself. Reading these is about as fast as reading an int array, and
+	 * a layer is widened when a change needs a gid that doesn't fit.
+	 * </p>
+	 * 
+	 * <p>
+	 * If storing only the cells that aren't empty would take less than half the memory of that, the
+	 * layer is stored either as 16x16 blocks with the empty blocks left out, or as a hash table of
+	 * the cells that aren't empty, whichever is smaller. Reading a sparse layer is a few times
+	 * slower, and copying regions or scanning whole layers is slower for every compact storage, so
+	 * only turn this on if memory matters more than reading speed.
+	 * </p>
+	 * 
+	 * <p>
+	 * Layers of compiled maps and chunked layers of infinite maps are never changed. See
+	 * MemoryReport to compare the storage of each layer.
+	 * </p>
+	 */
+	public boolean compactTileLayers;
+	/**
+	 * <p>
+	 * If true, tile layers may also be stored in packed chunks, when that takes less memory.
+	 * Defaults to false. Has no effect unless <i>compactTileLayers</i> is also true.
+	 * </p>
+	 * 
+	 * <p>
+	 * Each 32x32 chunk has its own palette of the gids it uses, and a bit-packed index into it for
+	 * each cell, so a chunk of a single gid takes almost nothing, and a chunk of 16 different gids
+	 * takes 4 bits per cell. This suits large worlds made of areas that each use a few tiles. Reads
+	 * still take constant time, but are a few times slower than reading an int array, and
+	 * measuring each chunk makes loading slower. A change that needs a new gid repacks only its
+	 * own chunk.
+	 * </p>
+	 */
+	public boolean packTileLayers;
+	/**
+	 * <p>
+	 * If true, the gids of each tile layer are kept in direct memory, outside the Java heap.
+	 * Defaults to false. Takes the place of <i>compactTileLayers</i> and <i>packTileLayers</i>.
+	 * </p>
+	 * 
+	 * <p>
+	 * This is meant for very large maps, whose gid arrays would otherwise make garbage collection
+	 * slower. Reading a single cell is about as fast as with an array, but loops over every cell
+	 * of a layer are up to a few times slower, since the JIT can't vectorize them as well. The
+	 * memory is freed by <i>MapFile.close</i> or <i>TileLayer.close</i>, or by the garbage
+	 * collector once the layer is unreachable. The JVM limits the total direct memory to the
+	 * maximum heap size unless <i>-XX:MaxDirectMemorySize</i> is set. A layer can have at most
+	 * 2^29 - 1 cells (about 23000x23000).
+	 * </p>
+	 * 
+	 * <p>
+	 * TMX files are still decoded into an array first, which is then copied. The layers of a
+	 * compiled map (see <i>MapFile.loadCompiled</i>) are read straight from the memory-mapped file,
+	 * whose pages are shared by every process that maps it, and a layer is only copied into direct
+	 * memory when it's first changed. Chunked layers of infinite maps stay on the heap.
+	 * </p>
+	 */
+	public boolean offHeapTileLayers;
+
+	/**
+	 * The default options.
+	 */
+	public LoadOptions() {
+		lazyTileImages = false;
+		tilesetRegistry = null;
+		executor = null;
+		layerPool = null;
+		layerFilter = null;
+		headless = false;
+		compactTileLayers = false;
+		packTileLayers = false;
+		offHeapTileLayers = false;
+	}
+}
@@ -0,0 +1,39 @@
+package util;
+
+/**
+ * <p>
+ * Receives progress updates while a map is loaded by <i>MapFile.loadAsync</i>.
+ * </p>
+ * 
+ * <p>
+ * Every method is called on the thread that loads the map, and should return quickly. The
+ * default implementations do nothing, so only the updates that are needed have to be
+ * implemented.
+ * </p>
+ */
+public interface LoadProgressListener {
+	/**
+	 * Called as the map file is read. Tileset and image files are not counted.
+	 * 
+	 * @param bytesRead
+	 *            The number of bytes of the map file read so far.
+	 */
+	default void bytesRead(long bytesRead) {}
+
+	/**
+	 * Called after each of the map's tilesets is loaded.
+	 * 
+	 * @param tilesetsLoaded
+	 *            The number of tilesets loaded so far.
+	 */
+	default void tilesetLoaded(int tilesetsLoaded) {}
+
+	/**
+	 * Called after each layer is loaded, including layers inside groups and the groups
+	 * themselves.
+	 * 
+	 * @param layersLoaded
+	 *            The number of layers loaded so far.
+	 */
+	default void layerLoaded(int layersLoaded) {}
+}
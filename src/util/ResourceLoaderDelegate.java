@@ -13,13 +13,24 @@ import core.Tileset;
  */
 public interface ResourceLoaderDelegate<IMG> {
 	/**
+	 * <p>
 	 * Called to open any kind of file. There should not be any caching in this function;
 	 * the getCachedTileset / getCachedImage functions are checked first.
+	 * </p>
+	 * 
+	 * <p>
+	 * The map file itself is opened with the file name given to the MapFile constructor and an
+	 * empty base directory. Files referenced from the map (or from a tileset file) are resolved
+	 * against the directory of the file that references them, so <i>baseDirectory</i> +
+	 * <i>filename</i> is always the path of the file relative to the directory the map's file name
+	 * is relative to. The same file always gets the same filename and baseDirectory, so they can be
+	 * used as a cache key.
+	 * </p>
 	 * 
 	 * @param filename
-	 *            The file name, as given in the TMX file.
+	 *            The name of the file, without any directories.
 	 * @param baseDirectory
-	 *            The directory of the TMX file, relative to the map file.
+	 *            The directory of the file, ending in '/', or an empty string. See above.
 	 * @return An input stream for the file. Should normally be a BufferedInputStream.
 	 *         Cannot be null. Throw an exception instead.
 	 */
@@ -55,9 +66,9 @@ public interface ResourceLoaderDelegate<IMG> {
 	 * Called before attempting to load a tileset file.
 	 * 
 	 * @param filename
-	 *            The file name, as given in the TMX file.
+	 *            The name of the file, as given to openFile.
 	 * @param baseDirectory
-	 *            The directory of the TMX file, relative to the map file.
+	 *            The directory of the file, as given to openFile.
 	 * @return The tileset, or null if the tileset isn't cached.
 	 */
 	default Tileset<IMG> getCachedTileset(String filename, String baseDirectory) {
@@ -68,9 +79,9 @@ public interface ResourceLoaderDelegate<IMG> {
 	 * Called after parsing a tileset.
 	 * 
 	 * @param filename
-	 *            The file name, as given in the TMX file.
+	 *            The name of the file, as given to openFile.
 	 * @param baseDirectory
-	 *            The directory of the TMX file, relative to the map file.
+	 *            The directory of the file, as given to openFile.
 	 * @param loadedTileset
 	 *            The tileset to cache.
 	 */
@@ -80,9 +91,9 @@ public interface ResourceLoaderDelegate<IMG> {
 	 * Called before attempting to load an image file.
 	 * 
 	 * @param filename
-	 *            The file name, as given in the TMX file.
+	 *            The name of the file, as given to openFile.
 	 * @param baseDirectory
-	 *            The directory of the TMX file, relative to the map file.
+	 *            The directory of the file, as given to openFile.
 	 * @return An image object, or null if it isn't cached.
 	 */
 	default IMG getCachedImage(String filename, String baseDirectory) {
@@ -93,11 +104,58 @@ public interface ResourceLoaderDelegate<IMG> {
 	 * Called after loading an image via loadImage.
 	 * 
 	 * @param filename
-	 *            The file name, as given in the TMX file.
+	 *            The name of the file, as given to openFile.
 	 * @param baseDirectory
-	 *            The directory of the TMX file, relative to the map file.
+	 *            The directory of the file, as given to openFile.
 	 * @param image
 	 *            The image to cache.
 	 */
 	default void cacheImage(String filename, String baseDirectory, IMG image) {}
+
+	/**
+	 * <p>
+	 * Called before attempting to load an image file that may need a transparent color applied.
+	 * </p>
+	 * 
+	 * <p>
+	 * The default implementation calls <i>getCachedImage(filename, baseDirectory)</i> if
+	 * <i>transparentColor</i> is null, and returns null otherwise, since the same file can be
+	 * loaded with different transparent colors. Override this and <i>cacheImage(String, String,
+	 * TMXColor, Object)</i> to cache those images too.
+	 * </p>
+	 * 
+	 * @param filename
+	 *            The name of the file, as given to openFile.
+	 * @param baseDirectory
+	 *            The directory of the file, as given to openFile.
+	 * @param transparentColor
+	 *            The color that was given to loadImage. Null if not specified.
+	 * @return An image object, or null if it isn't cached.
+	 */
+	default IMG getCachedImage(String filename, String baseDirectory, TMXColor transparentColor) {
+		if (transparentColor != null) {
+			return null;
+		}
+		return getCachedImage(filename, baseDirectory);
+	}
+
+	/**
+	 * Called after loading an image via loadImage. The default implementation calls
+	 * <i>cacheImage(filename, baseDirectory, image)</i> if <i>transparentColor</i> is null. See
+	 * <i>getCachedImage(String, String, TMXColor)</i>.
+	 * 
+	 * @param filename
+	 *            The name of the file, as given to openFile.
+	 * @param baseDirectory
+	 *            The directory of the file, as given to openFile.
+	 * @param transparentColor
+	 *            The color that was given to loadImage. Null if not specified.
+	 * @param image
+	 *            The image to cache.
+	 */
+	default void cacheImage(String filename, String baseDirectory, TMXColor transparentColor, IMG image) {
+		if (transparentColor == null) {
+			cacheImage(filename, baseDirectory, image);
+		}
+	}
 }
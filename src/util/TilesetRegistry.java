@@ -0,0 +1,164 @@
+package util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import core.Tileset;
+
+/**
+ * <p>
+ * A thread-safe registry of tileset files, shared by maps that are loaded at the same time.
+ * </p>
+ *
+ * <p>
+ * Set <i>LoadOptions.tilesetRegistry</i> to use a registry. The first map that needs a tileset
+ * file loads it, and any other map that needs the same file, on any thread, waits for that load
+ * to finish and gets the same Tileset instance. A tileset file is never parsed twice, even if
+ * several maps are loaded at once.
+ * </p>
+ *
+ * <p>
+ * Loads whose options change how images are loaded (<i>LoadOptions.headless</i> and
+ * <i>LoadOptions.lazyTileImages</i>) get separate Tileset instances, so a headless load never
+ * gives a tileset without images to a normal one.
+ * </p>
+ *
+ * <p>
+ * Tilesets stay in the registry until <i>remove</i> or <i>clear</i> is called. If a load fails,
+ * every map waiting for it gets the same exception, and the next map to need the file tries
+ * again.
+ * </p>
+ *
+ * @param <IMG>
+ *            The IMG param of the maps using this registry. See MapFile for more info.
+ */
+public class TilesetRegistry<IMG> {
+	private final ConcurrentHashMap<String, CompletableFuture<Tileset<IMG>>> tilesets = new ConcurrentHashMap<>();
+	private final AtomicLong loadCount = new AtomicLong();
+	private final AtomicLong duplicateLoadsAvoided = new AtomicLong();
+
+	/**
+	 * Create an empty registry.
+	 */
+	public TilesetRegistry() {}
+
+	/**
+	 * Get a tileset loaded with the default options, loading it if no other caller has loaded or
+	 * is loading it.
+	 *
+	 * @param filename
+	 *            The name of the tileset file, as given to <i>ResourceLoaderDelegate.openFile</i>.
+	 * @param baseDirectory
+	 *            The directory of the tileset file, as given to <i>ResourceLoaderDelegate.openFile</i>.
+	 * @param loader
+	 *            Loads the tileset. Only called if the tileset isn't in the registry.
+	 * @return The tileset.
+	 */
+	public Tileset<IMG> getTileset(String filename, String baseDirectory, Supplier<Tileset<IMG>> loader) {
+		return getTileset(filename, baseDirectory, new LoadOptions(), loader);
+	}
+
+	/**
+	 * Get a tileset, loading it if no other caller has loaded or is loading it with the same image
+	 * options. Called by the map loader.
+	 *
+	 * @param filename
+	 *            The name of the tileset file, as given to <i>ResourceLoaderDelegate.openFile</i>.
+	 * @param baseDirectory
+	 *            The directory of the tileset file, as given to <i>ResourceLoaderDelegate.openFile</i>.
+	 * @param options
+	 *            The options <i>loader</i> loads the tileset with. Only <i>headless</i> and
+	 *            <i>lazyTileImages</i> are used.
+	 * @param loader
+	 *            Loads the tileset. Only called if the tileset isn't in the registry.
+	 * @return The tileset.
+	 */
+	public Tileset<IMG> getTileset(String filename, String baseDirectory, LoadOptions options, Supplier<Tileset<IMG>> loader) {
+		String key = getKey(filename, baseDirectory, getImageMode(options));
+		CompletableFuture<Tileset<IMG>> future = tilesets.get(key);
+		if (future == null) {
+			CompletableFuture<Tileset<IMG>> newFuture = new CompletableFuture<>();
+			future = tilesets.putIfAbsent(key, newFuture);
+			if (future == null) {
+				// This caller won the race, so it does the load.
+				loadCount.incrementAndGet();
+				try {
+					newFuture.complete(loader.get());
+				} catch (RuntimeException | Error e) {
+					tilesets.remove(key, newFuture);
+					newFuture.completeExceptionally(e);
+					throw e;
+				}
+				return newFuture.join();
+			}
+		}
+
+		duplicateLoadsAvoided.incrementAndGet();
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Remove a tileset from the registry. Maps that already use it are not changed.
+	 *
+	 * @param filename
+	 *            The name of the tileset file.
+	 * @param baseDirectory
+	 *            The directory of the tileset file.
+	 */
+	public void remove(String filename, String baseDirectory) {
+		for (ImageMode mode : ImageMode.values()) {
+			tilesets.remove(getKey(filename, baseDirectory, mode));
+		}
+	}
+
+	/**
+	 * Remove every tileset from the registry. Maps that already use them are not changed.
+	 */
+	public void clear() {
+		tilesets.clear();
+	}
+
+	/**
+	 * @return The number of tileset files that have been loaded through this registry.
+	 */
+	public long getLoadCount() {
+		return loadCount.get();
+	}
+
+	/**
+	 * @return The number of times a tileset was needed but didn't have to be loaded, because it
+	 *         was already loaded or another thread was loading it.
+	 */
+	public long getDuplicateLoadsAvoided() {
+		return duplicateLoadsAvoided.get();
+	}
+
+	/**
+	 * The ways a tileset's images can be loaded. Each gets its own Tileset instance.
+	 */
+	private static enum ImageMode {
+		EAGER, LAZY, HEADLESS
+	}
+
+	private static ImageMode getImageMode(LoadOptions options) {
+		if (options.headless) {
+			return ImageMode.HEADLESS;
+		}
+		return options.lazyTileImages ? ImageMode.LAZY : ImageMode.EAGER;
+	}
+
+	private static String getKey(String filename, String baseDirectory, ImageMode mode) {
+		return mode + ":" + baseDirectory + filename;
+	}
+}
@@ -0,0 +1,80 @@
+package core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.LoadOptions;
+import util.Rect;
+
+/**
+ * <p>
+ * Checks that a compiled map loads the same as the map file it was compiled from.
+ * </p>
+ *
+ * <p>
+ * It uses the TileLayer fixture, which has tile data in every encoding, flipped tiles, and tile
+ * objects.
+ * </p>
+ */
+class CompiledMapTest {
+	private static final String FIXTURE = "TileLayer_case1.tmx";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void compiledMapMatchesMapFile() {
+		MapFile<String> expected = new MapFile<>(FIXTURE, new FixtureDelegate());
+		Path compiled = directory.resolve("TileLayer_case1.tmxb");
+		MapFile.compile(FIXTURE, new FixtureDelegate(), compiled);
+		MapFile<String> map = MapFile.loadCompiled(compiled, new FixtureDelegate(), new LoadOptions());
+
+		assertEquals(expected.mapWidth, map.mapWidth);
+		assertEquals(expected.mapHeight, map.mapHeight);
+		assertEquals(expected.tilesets.size(), map.tilesets.size());
+		assertEquals(expected.root.layers.size(), map.root.layers.size());
+		for (String name : new String[] { "csv", "base64", "zlib", "gzip", "palette" }) {
+			TileLayer<String> expectedLayer = expected.root.getLayerByName(name).asTiles();
+			TileLayer<String> layer = map.root.getLayerByName(name).asTiles();
+			assertEquals("mapped", layer.getGidStorage().getKind());
+			assertArrayEquals(getGids(expectedLayer), getGids(layer), name);
+			assertEquals(expectedLayer.getTile(1, 0).image, layer.getTile(1, 0).image);
+		}
+
+		ObjectLayer<String> expectedObjects = expected.root.getLayerByName("objects").asObjects();
+		ObjectLayer<String> objects = map.root.getLayerByName("objects").asObjects();
+		assertEquals(expectedObjects.objects.size(), objects.objects.size());
+		for (int i = 0; i < objects.objects.size(); i++) {
+			TileObject<String> expectedObject = expectedObjects.objects.get(i).asTile();
+			TileObject<String> object = objects.objects.get(i).asTile();
+			assertEquals(expectedObject.name, object.name);
+			assertEquals(expectedObject.flipFlags, object.flipFlags);
+			assertEquals(expectedObject.tile.localId, object.tile.localId);
+		}
+	}
+
+	@Test
+	void changedCompiledLayerKeepsOtherCells() {
+		Path compiled = directory.resolve("TileLayer_case1.tmxb");
+		MapFile.compile(FIXTURE, new FixtureDelegate(), compiled);
+		MapFile<String> map = MapFile.loadCompiled(compiled, new FixtureDelegate(), new LoadOptions());
+		TileLayer<String> layer = map.root.getLayerByName("gzip").asTiles();
+		int[] expected = getGids(layer);
+
+		layer.setGid(2, 0, 9 | TileLayer.FLIPPED_HORIZ_FLAG);
+		expected[2] = 9 | TileLayer.FLIPPED_HORIZ_FLAG;
+		assertArrayEquals(expected, getGids(layer));
+
+		// The compiled file itself isn't changed.
+		MapFile<String> reloaded = MapFile.loadCompiled(compiled, new FixtureDelegate(), new LoadOptions());
+		assertEquals(0, reloaded.root.getLayerByName("gzip").asTiles().getGid(2, 0));
+	}
+
+	private static int[] getGids(TileLayer<String> layer) {
+		int[] gids = new int[layer.width * layer.height];
+		layer.copyGids(new Rect(0, 0, layer.width, layer.height), gids);
+		return gids;
+	}
+}
@@ -0,0 +1,66 @@
+package core;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import util.Rect;
+import util.ResourceLoaderDelegate;
+
+/**
+ * <p>
+ * Opens the files of a test, by default the ones in the testCases directory.
+ * </p>
+ * 
+ * <p>
+ * Images are strings, so tests can see which image a tile was given. An image is the text of its
+ * file, or "missing" if the file doesn't exist, since most fixtures name images that aren't there.
+ * A slice is the image followed by its pixel bounds.
+ * </p>
+ */
+class FixtureDelegate implements ResourceLoaderDelegate<String> {
+	private final Path directory;
+
+	FixtureDelegate() {
+		this(Paths.get("testCases"));
+	}
+
+	FixtureDelegate(Path directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public InputStream openFile(String filename, String baseDirectory) {
+		Path path = directory.resolve(baseDirectory).resolve(filename);
+		try {
+			if (filename.endsWith(".png") && !Files.exists(path)) {
+				return new ByteArrayInputStream("missing".getBytes("UTF-8"));
+			}
+			return new FileInputStream(path.toFile());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public String loadImage(InputStream input, TMXColor transparentColor) {
+		try {
+			StringBuilder text = new StringBuilder();
+			for (int c = input.read(); c != -1; c = input.read()) {
+				text.append((char) c);
+			}
+			return text.toString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public String sliceImage(String image, Rect pixelBounds) {
+		return image + " " + pixelBounds.x + "," + pixelBounds.y + "," + pixelBounds.width + "," + pixelBounds.height;
+	}
+}
@@ -0,0 +1,195 @@
+package core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+import util.LoadOptions;
+import util.Rect;
+
+/**
+ * <p>
+ * Checks that packed and palette storage hold the same gids as an int array, through reads,
+ * changes, and copies.
+ * </p>
+ *
+ * <p>
+ * The fixture is a 120x90 layer, so the chunks on its right and bottom edges are partial. Its
+ * chunks use between 0 and 513 different gids, some of them flipped, so packing it needs every
+ * index width from 0 to 10 bits.
+ * </p>
+ */
+class GidStorageTest {
+	private static final String FIXTURE = "GidStorage_case1.tmx";
+
+	@Test
+	void fixtureNeedsEveryIndexWidth() {
+		TileLayer<String> layer = loadFixture();
+		int[] gids = getGids(layer);
+		TreeSet<Integer> widths = new TreeSet<>();
+		int[] cells = new int[GidStorage.PACKED_CHUNK_CELLS];
+		int[] scratch = new int[GidStorage.PACKED_CHUNK_CELLS];
+		for (int top = 0; top < layer.height; top += GidStorage.PACKED_CHUNK_SIZE) {
+			for (int left = 0; left < layer.width; left += GidStorage.PACKED_CHUNK_SIZE) {
+				Arrays.fill(cells, 0);
+				for (int row = 0; row < Math.min(GidStorage.PACKED_CHUNK_SIZE, layer.height - top); row++) {
+					System.arraycopy(gids, (top + row) * layer.width + left, cells, row * GidStorage.PACKED_CHUNK_SIZE, Math.min(GidStorage.PACKED_CHUNK_SIZE, layer.width - left));
+				}
+				GidStorage.PackedChunk chunk = GidStorage.PackedChunk.of(cells, scratch);
+				// -1 for an empty chunk, which isn't stored at all.
+				widths.add(chunk == null ? -1 : chunk.bits);
+			}
+		}
+		assertEquals("[-1, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10]", widths.toString());
+	}
+
+	@Test
+	void packedMatchesArray() {
+		TileLayer<String> layer = loadFixture();
+		int[] gids = getGids(layer);
+		GidStorage packed = GidStorage.Packed.of(gids, layer.width, layer.height);
+		assertEquals("packed", packed.getKind());
+		assertSameGids(gids, packed, layer.width, "packed");
+	}
+
+	@Test
+	void packedChangesMatchArray() {
+		TileLayer<String> layer = loadFixture();
+		int width = layer.width;
+		int[] expected = getGids(layer);
+		int[] original = expected.clone();
+		GidStorage storage = GidStorage.Packed.of(expected.clone(), width, layer.height);
+		GidStorage copy = storage.copy();
+		Random random = new Random(1);
+
+		for (int i = 1; i <= 20000; i++) {
+			int index = random.nextInt(expected.length);
+			int gid;
+			switch (random.nextInt(4)) {
+			case 0:
+				gid = 0;
+				break;
+			case 1:
+				// A gid that may be new to the chunk, so it may have to be repacked.
+				gid = (1 + random.nextInt(2048)) | (random.nextBoolean() ? TileLayer.FLIPPED_HORIZ_FLAG : 0);
+				break;
+			default:
+				gid = expected[random.nextInt(expected.length)];
+				break;
+			}
+			expected[index] = gid;
+			storage = storage.set(index, gid);
+			if (i % 2500 == 0) {
+				assertSameGids(expected, storage, width, "packed after " + i + " changes");
+			}
+		}
+
+		// Empty the top-left chunk, then fill it again one cell at a time with a new gid for each
+		// cell, so it grows from nothing to 10 bits.
+		for (int y = 0; y < GidStorage.PACKED_CHUNK_SIZE; y++) {
+			for (int x = 0; x < GidStorage.PACKED_CHUNK_SIZE; x++) {
+				expected[y * width + x] = 0;
+				storage = storage.set(y * width + x, 0);
+			}
+		}
+		assertSameGids(expected, storage, width, "packed with an emptied chunk");
+		for (int y = 0; y < GidStorage.PACKED_CHUNK_SIZE; y++) {
+			for (int x = 0; x < GidStorage.PACKED_CHUNK_SIZE; x++) {
+				int gid = 1 + y * GidStorage.PACKED_CHUNK_SIZE + x;
+				expected[y * width + x] = gid;
+				storage = storage.set(y * width + x, gid);
+			}
+		}
+		assertSameGids(expected, storage, width, "packed with a refilled chunk");
+
+		// Fill the partial bottom-right chunk the same way.
+		int columns = width % GidStorage.PACKED_CHUNK_SIZE;
+		int rows = layer.height % GidStorage.PACKED_CHUNK_SIZE;
+		int corner = (layer.height - 1) * width + width - 1;
+		for (int i = 0; i < columns * rows; i++) {
+			int index = corner - (i / columns) * width - i % columns;
+			expected[index] = 3000 - i;
+			storage = storage.set(index, 3000 - i);
+		}
+		assertSameGids(expected, storage, width, "packed with a refilled edge chunk");
+
+		assertSameGids(original, copy, width, "copy of packed");
+	}
+
+	@Test
+	void paletteWidensWhenFull() {
+		int width = 100;
+		int height = 100;
+		int[] expected = new int[width * height];
+		Random random = new Random(2);
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = (1 + random.nextInt(100)) | (random.nextInt(8) == 0 ? TileLayer.FLIPPED_DIAG_FLAG : 0);
+		}
+		GidStorage storage = GidStorage.compact(expected.clone(), width, height, false);
+		assertEquals("palette8", storage.getKind());
+		assertSameGids(expected, storage, width, "palette8");
+		GidStorage copy = storage.copy();
+		int[] original = expected.clone();
+
+		// New gids are added to the palette, and never removed, until it has to widen.
+		int nextGid = 1000;
+		while (storage.getKind().equals("palette8")) {
+			int index = random.nextInt(expected.length);
+			expected[index] = nextGid;
+			storage = storage.set(index, nextGid++);
+		}
+		assertEquals("palette16", storage.getKind());
+		assertSameGids(expected, storage, width, "palette16");
+
+		while (storage.getKind().equals("palette16")) {
+			int index = random.nextInt(expected.length);
+			expected[index] = nextGid;
+			storage = storage.set(index, nextGid++);
+		}
+		assertEquals("array", storage.getKind());
+		assertSameGids(expected, storage, width, "array widened from palette16");
+
+		assertSameGids(original, copy, width, "copy of palette8");
+	}
+
+	/**
+	 * Check every cell with both ways of reading, and runs that cross chunk edges like the ones
+	 * <i>TileLayer.copyGids</i> reads.
+	 */
+	private static void assertSameGids(int[] expected, GidStorage storage, int width, String what) {
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], storage.get(i), what + ": cell " + i);
+		}
+
+		int[] row = new int[width];
+		for (int y = 0; y < expected.length / width; y++) {
+			storage.get(y * width, row, 0, width);
+			assertEquals(Arrays.toString(Arrays.copyOfRange(expected, y * width, (y + 1) * width)), Arrays.toString(row), what + ": row " + y);
+		}
+
+		Random random = new Random(3);
+		int[] run = new int[width];
+		for (int i = 0; i < 200; i++) {
+			int x = random.nextInt(width);
+			int index = random.nextInt(expected.length / width) * width + x;
+			int length = 1 + random.nextInt(width - x);
+			storage.get(index, run, 0, length);
+			assertEquals(Arrays.toString(Arrays.copyOfRange(expected, index, index + length)), Arrays.toString(Arrays.copyOf(run, length)), what + ": run at " + index);
+		}
+	}
+
+	private static TileLayer<String> loadFixture() {
+		LoadOptions options = new LoadOptions();
+		// The fixture's tileset image doesn't exist.
+		options.headless = true;
+		MapFile<String> map = new MapFile<>(FIXTURE, new FixtureDelegate(), options);
+		return map.root.getLayerByName("ground").asTiles();
+	}
+
+	private static int[] getGids(TileLayer<String> layer) {
+		int[] gids = new int[layer.width * layer.height];
+		layer.copyGids(new Rect(0, 0, layer.width, layer.height), gids);
+		return gids;
+	}
+}
@@ -0,0 +1,101 @@
+package core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.LoadOptions;
+
+/**
+ * <p>
+ * Checks that a cached compiled map is used until the map, its tileset file, or any image either
+ * of them uses is changed.
+ * </p>
+ *
+ * <p>
+ * The fixture's tileset file has an .xml extension, and its images are written by each test.
+ * </p>
+ */
+class MapCacheTest {
+	private static final String FIXTURE = "MapCache_case1.tmx";
+	private static final String TILESET = "MapCache_case1.xml";
+	private static final String TILESET_IMAGE = "MapCache_case1.png";
+	private static final String BACKGROUND_IMAGE = "MapCache_case1_background.png";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void unchangedMapIsCached() throws IOException {
+		MapCache cache = newCache();
+		assertEquals("tiles v1 16,0,16,16", load(cache).getTile(2).image);
+		assertEquals("tiles v1 16,0,16,16", load(cache).getTile(2).image);
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	void tilesetImageChangeInvalidates() throws IOException {
+		MapCache cache = newCache();
+		load(cache);
+		write(TILESET_IMAGE, "tiles v2");
+		assertEquals("tiles v2 16,0,16,16", load(cache).getTile(2).image);
+		assertEquals(2, cache.getMissCount());
+		load(cache);
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	void mapImageChangeInvalidates() throws IOException {
+		MapCache cache = newCache();
+		load(cache);
+		write(BACKGROUND_IMAGE, "background v2");
+		assertEquals("background v2", load(cache).root.getLayerByName("background").asImage().image);
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	void tilesetFileChangeInvalidates() throws IOException {
+		MapCache cache = newCache();
+		load(cache);
+		Files.write(directory.resolve(TILESET), "<!-- changed -->".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		load(cache);
+		assertEquals(2, cache.getMissCount());
+		assertEquals(0, cache.getHitCount());
+	}
+
+	@Test
+	void mapChangeInvalidates() throws IOException {
+		MapCache cache = newCache();
+		assertEquals("tiles v1 0,16,16,16", load(cache).root.getLayerByName("ground").asTiles().getTile(0, 1).image);
+		String map = new String(Files.readAllBytes(directory.resolve(FIXTURE)), StandardCharsets.UTF_8);
+		write(FIXTURE, map.replace("3,4", "4,4"));
+		assertEquals("tiles v1 16,16,16,16", load(cache).root.getLayerByName("ground").asTiles().getTile(0, 1).image);
+		assertEquals(2, cache.getMissCount());
+	}
+
+	/**
+	 * Copy the fixture into the test's directory, and write the first version of its images.
+	 */
+	private MapCache newCache() throws IOException {
+		for (String file : new String[] { FIXTURE, TILESET }) {
+			Files.copy(Paths.get("testCases", file), directory.resolve(file));
+		}
+		write(TILESET_IMAGE, "tiles v1");
+		write(BACKGROUND_IMAGE, "background v1");
+		return new MapCache(directory.resolve("cache"));
+	}
+
+	private MapFile<String> load(MapCache cache) {
+		return cache.load(FIXTURE, new FixtureDelegate(directory), new LoadOptions());
+	}
+
+	private void write(String file, String contents) throws IOException {
+		Files.write(directory.resolve(file), contents.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,106 @@
+package core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.LoadOptions;
+import util.Rect;
+
+/**
+ * <p>
+ * Checks that a region holds the same cells as the whole map, offset by its origin, whether it's
+ * loaded from the map file or a compiled map.
+ * </p>
+ *
+ * <p>
+ * The fixture is 20x15. Each cell of its "ground" layer has a different gid, <i>1 + x + y *
+ * 20</i>, so a cell read from the wrong place is never right by chance. The "csv" layer has each
+ * row reversed.
+ * </p>
+ */
+class RegionLoaderTest {
+	private static final String FIXTURE = "RegionLoader_case1.tmx";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void regionIsOffsetByItsOrigin() {
+		RegionLoader<String> loader = new RegionLoader<>(FIXTURE, new FixtureDelegate(), new LoadOptions());
+		MapFile<String> map = loader.load(new Rect(5, 3, 4, 6));
+		assertEquals(20, map.mapWidth);
+		assertEquals(15, map.mapHeight);
+
+		TileLayer<String> layer = map.root.getLayerByName("ground").asTiles();
+		assertEquals(5, layer.originX);
+		assertEquals(3, layer.originY);
+		assertEquals(4, layer.width);
+		assertEquals(6, layer.height);
+		assertEquals(1 + 5 + 3 * 20, layer.getGid(0, 0));
+		assertEquals(1 + 8 + 8 * 20, layer.getGid(3, 5));
+		assertEquals(1 + 6 + 4 * 20, layer.getMapGid(6, 4));
+		assertEquals(0, layer.getMapGid(4, 4));
+		assertEquals(0, layer.getMapGid(9, 4));
+
+		assertEquals("[inside]", getObjectNames(map));
+	}
+
+	@Test
+	void regionIsClippedToTheMap() {
+		RegionLoader<String> loader = new RegionLoader<>(FIXTURE, new FixtureDelegate(), new LoadOptions());
+		MapFile<String> map = loader.load(new Rect(17, 12, 10, 10));
+		TileLayer<String> layer = map.root.getLayerByName("ground").asTiles();
+		assertEquals(17, layer.originX);
+		assertEquals(12, layer.originY);
+		assertEquals(3, layer.width);
+		assertEquals(3, layer.height);
+		assertEquals(1 + 19 + 14 * 20, layer.getMapGid(19, 14));
+		assertEquals("[far]", getObjectNames(map));
+	}
+
+	@Test
+	void regionsMatchWholeMap() {
+		MapFile<String> whole = new MapFile<>(FIXTURE, new FixtureDelegate());
+		Path compiled = directory.resolve("RegionLoader_case1.tmxb");
+		MapFile.compile(FIXTURE, new FixtureDelegate(), compiled);
+		ArrayList<RegionLoader<String>> loaders = new ArrayList<>();
+		loaders.add(new RegionLoader<>(FIXTURE, new FixtureDelegate(), new LoadOptions()));
+		loaders.add(new RegionLoader<>(compiled, new FixtureDelegate(), new LoadOptions()));
+
+		Rect[] regions = { new Rect(0, 0, 20, 15), new Rect(0, 0, 1, 1), new Rect(7, 2, 9, 11), new Rect(-3, -2, 6, 5), new Rect(19, 0, 5, 15) };
+		for (Rect region : regions) {
+			for (RegionLoader<String> loader : loaders) {
+				MapFile<String> map = loader.load(region);
+				for (String name : new String[] { "ground", "csv" }) {
+					TileLayer<String> expected = whole.root.getLayerByName(name).asTiles();
+					TileLayer<String> layer = map.root.getLayerByName(name).asTiles();
+					for (int y = -3; y < 18; y++) {
+						for (int x = -3; x < 23; x++) {
+							assertEquals(getExpectedGid(expected, region, x, y), layer.getMapGid(x, y), name + " cell " + x + "," + y);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The gid of a cell in the whole map, or 0 if the cell isn't in the region.
+	 */
+	private static int getExpectedGid(TileLayer<String> whole, Rect region, int x, int y) {
+		if (x < region.x || y < region.y || x >= region.x + region.width || y >= region.y + region.height) {
+			return 0;
+		}
+		return whole.getMapGid(x, y);
+	}
+
+	private static String getObjectNames(MapFile<String> map) {
+		ArrayList<String> names = new ArrayList<>();
+		for (TMXObject object : map.root.getLayerByName("objects").asObjects().objects) {
+			names.add(object.name);
+		}
+		return names.toString();
+	}
+}
@@ -0,0 +1,134 @@
+package core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import util.LoadOptions;
+import util.Rect;
+
+/**
+ * <p>
+ * Checks that tile data is decoded the same way in every encoding, that tile flipping flags are
+ * kept on layers and tile objects, and that changing a compacted layer keeps its gids.
+ * </p>
+ *
+ * <p>
+ * The fixture has the same 6x4 gids as CSV, base64, zlib, and gzip data, a 40x40 layer that uses
+ * 60 different tiles, and tile objects with each flipping flag.
+ * </p>
+ */
+class TileLayerTest {
+	private static final String FIXTURE = "TileLayer_case1.tmx";
+	private static final int H = TileLayer.FLIPPED_HORIZ_FLAG;
+	private static final int V = TileLayer.FLIPPED_VERT_FLAG;
+	private static final int D = TileLayer.FLIPPED_DIAG_FLAG;
+	/**
+	 * The gids of each of the 6x4 layers, in row-major order.
+	 */
+	private static final int[] GIDS = {
+			1, 2, 0, 33 | H, 1024, 5 | V,
+			0, 7 | D, 7 | H | V | D, 0, 100, 100,
+			64 | H | D, 65, 66 | V, 0, 0, 1023,
+			3, 3 | H, 3 | V, 3 | D, 512, 1 };
+
+	@Test
+	void everyEncodingHasTheSameGids() {
+		MapFile<String> map = new MapFile<>(FIXTURE, new FixtureDelegate());
+		for (String name : new String[] { "csv", "base64", "zlib", "gzip" }) {
+			TileLayer<String> layer = map.root.getLayerByName(name).asTiles();
+			assertEquals(6, layer.width);
+			assertEquals(4, layer.height);
+			assertArrayEquals(GIDS, getGids(layer), name);
+		}
+	}
+
+	@Test
+	void layerFlipFlagsAreKept() {
+		MapFile<String> map = new MapFile<>(FIXTURE, new FixtureDelegate());
+		TileLayer<String> layer = map.root.getLayerByName("zlib").asTiles();
+
+		assertEquals(H, layer.getFlipFlags(3, 0));
+		assertSame(map.getTile(33), layer.getTile(3, 0));
+		assertEquals("missing 0,16,16,16", layer.getTile(3, 0).image);
+
+		assertEquals(H | V | D, layer.getFlipFlags(2, 1));
+		assertTrue(layer.isFlippedHorizontally(2, 1));
+		assertTrue(layer.isFlippedVertically(2, 1));
+		assertTrue(layer.isFlippedDiagonally(2, 1));
+		assertSame(layer.getTile(1, 1), layer.getTile(2, 1));
+
+		assertEquals(V, layer.getFlipFlags(2, 2));
+		assertFalse(layer.isFlippedHorizontally(2, 2));
+		assertFalse(layer.isFlippedDiagonally(2, 2));
+
+		assertEquals(0, layer.getFlipFlags(1, 2));
+		assertEquals(1022, layer.getTile(5, 2).localId);
+	}
+
+	@Test
+	void objectFlipFlagsAreKept() {
+		MapFile<String> map = new MapFile<>(FIXTURE, new FixtureDelegate());
+		ObjectLayer<String> layer = map.root.getLayerByName("objects").asObjects();
+		Tile<String> tile = map.getTile(10);
+
+		TileObject<String> plain = layer.getObjectByName("plain").asTile();
+		assertSame(tile, plain.tile);
+		assertEquals(0, plain.flipFlags);
+
+		TileObject<String> horizontal = layer.getObjectByName("horizontal").asTile();
+		assertSame(tile, horizontal.tile);
+		assertEquals(H, horizontal.flipFlags);
+		assertTrue(horizontal.isFlippedHorizontally());
+		assertFalse(horizontal.isFlippedVertically());
+
+		TileObject<String> vertical = layer.getObjectByName("vertical").asTile();
+		assertEquals(V, vertical.flipFlags);
+		assertTrue(vertical.isFlippedVertically());
+		assertFalse(vertical.isFlippedDiagonally());
+
+		TileObject<String> all = layer.getObjectByName("all").asTile();
+		assertSame(tile, all.tile);
+		assertEquals(H | V | D, all.flipFlags);
+	}
+
+	@Test
+	void setGidWidensPalette() {
+		LoadOptions options = new LoadOptions();
+		options.compactTileLayers = true;
+		MapFile<String> map = new MapFile<>(FIXTURE, new FixtureDelegate(), options);
+		TileLayer<String> layer = map.root.getLayerByName("palette").asTiles();
+		assertEquals("palette8", layer.getGidStorage().getKind());
+		int[] expected = getGids(layer);
+
+		// Each cell gets a gid the layer doesn't use yet, until the palette has to widen.
+		int gid = 101;
+		for (int i = 0; layer.getGidStorage().getKind().equals("palette8"); i++) {
+			int x = i * 7 % layer.width;
+			int y = i * 7 / layer.width;
+			expected[y * layer.width + x] = gid | V;
+			layer.setGid(x, y, gid | V);
+			gid++;
+		}
+		assertEquals("palette16", layer.getGidStorage().getKind());
+		// The fixture uses 120 gids (60 tiles, each also flipped), so 136 new ones fill the palette
+		// and the 137th widens it.
+		assertEquals(101 + 137, gid);
+
+		assertArrayEquals(expected, getGids(layer));
+		for (int y = 0; y < layer.height; y++) {
+			for (int x = 0; x < layer.width; x++) {
+				assertEquals(expected[y * layer.width + x], layer.getGid(x, y), "cell " + x + "," + y);
+			}
+		}
+		assertSame(map.getTile(237), layer.getTile(136 * 7 % layer.width, 136 * 7 / layer.width));
+	}
+
+	private static int[] getGids(TileLayer<String> layer) {
+		int[] gids = new int[layer.width * layer.height];
+		layer.copyGids(new Rect(0, 0, layer.width, layer.height), gids);
+		return gids;
+	}
+}
@@ -0,0 +1,47 @@
+package core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+import util.CachingResourceLoaderDelegate;
+import util.LoadOptions;
+
+/**
+ * <p>
+ * Checks that tilesets loaded with <i>lazyTileImages</i> don't leak into the delegate's tileset
+ * cache, where a normal load would find tiles with no images.
+ * </p>
+ */
+class TilesetTest {
+	private static final String FIXTURE = "Tileset_case2.tmx";
+
+	@Test
+	void lazyTilesetIsNotCached() {
+		CachingResourceLoaderDelegate<String> delegate = new CachingResourceLoaderDelegate<>(new FixtureDelegate(), 1 << 20, String::length);
+		LoadOptions lazy = new LoadOptions();
+		lazy.lazyTileImages = true;
+
+		MapFile<String> lazyMap = new MapFile<>(FIXTURE, delegate, lazy);
+		Tile<String> lazyTile = lazyMap.getTile(17);
+		assertNull(lazyTile.image);
+		assertEquals("missing 16,16,16,16", lazyTile.getImage());
+		assertNull(delegate.getCachedTileset("Tileset_case1.tsx", ""));
+
+		MapFile<String> eagerMap = new MapFile<>(FIXTURE, delegate);
+		assertEquals("missing 16,16,16,16", eagerMap.getTile(17).image);
+		assertEquals("missing 224,240,16,16", eagerMap.getTile(240).image);
+	}
+
+	@Test
+	void lazyLoadUsesCachedTileset() {
+		CachingResourceLoaderDelegate<String> delegate = new CachingResourceLoaderDelegate<>(new FixtureDelegate(), 1 << 20, String::length);
+		MapFile<String> eagerMap = new MapFile<>(FIXTURE, delegate);
+		LoadOptions lazy = new LoadOptions();
+		lazy.lazyTileImages = true;
+
+		MapFile<String> lazyMap = new MapFile<>(FIXTURE, delegate, lazy);
+		assertSame(eagerMap.tilesets.get(0).tiles, lazyMap.tilesets.get(0).tiles);
+		assertEquals("missing 16,16,16,16", lazyMap.getTile(17).image);
+	}
+}